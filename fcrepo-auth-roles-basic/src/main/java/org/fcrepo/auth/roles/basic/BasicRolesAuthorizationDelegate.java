@@ -17,41 +17,131 @@
  */
 package org.fcrepo.auth.roles.basic;
 
+import static java.util.Collections.singleton;
+
 import java.security.Principal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.jcr.Session;
 
 import org.fcrepo.auth.roles.common.AbstractRolesAuthorizationDelegate;
+import org.fcrepo.auth.roles.common.EffectiveAcl;
+import org.modeshape.jcr.value.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+
 /**
  * @author Gregory Jansen
  */
 public class BasicRolesAuthorizationDelegate extends AbstractRolesAuthorizationDelegate {
 
-    public static final String EVERYONE_NAME = "EVERYONE";
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(BasicRolesAuthorizationDelegate.class);
 
     /**
-     * The security principal for every request, that represents the "EVERYONE" user.
+     * Further roles, as a comma-separated list of "role&gt;implied" pairs, each granting a role every permission of
+     * another. For example "curator&gt;writer,manager&gt;curator" makes a curator a writer and a manager a curator.
      */
-    private static final Principal EVERYONE = new Principal() {
+    public static final String ROLE_HIERARCHY = "fcrepo.auth.roles.hierarchy";
 
-        @Override
-        public String getName() {
-            return BasicRolesAuthorizationDelegate.EVERYONE_NAME;
-        }
+    /*
+     * Action ids and path classes, which together number the situations a decision is made in.
+     */
+    private static final int READ = 0;
 
-        @Override
-        public String toString() {
-            return getName();
-        }
+    private static final int MODIFY = 1;
 
-    };
+    private static final int CONTENT = 0;
 
-    private static final Logger LOGGER = LoggerFactory
-            .getLogger(BasicRolesAuthorizationDelegate.class);
+    private static final int ACL = 2;
+
+    /**
+     * Stands for the permissions of roles of which none is recognized.
+     */
+    private static final int UNRECOGNIZED = -1;
+
+    /**
+     * The permissions the built-in roles hold in their own right, as bitmasks of the situations
+     * (1 << (path class | action)) they permit; the rest come from the roles they imply.
+     */
+    private static final Map<String, Integer> OWN_PERMISSIONS = ImmutableMap.of(
+            "admin", permit(ACL, MODIFY),
+            // a writer may do anything but change ACLs
+            "writer", permit(CONTENT, MODIFY),
+            "reader", permit(CONTENT, READ) | permit(ACL, READ));
+
+    private static final String BUILT_IN_HIERARCHY = "admin>writer,writer>reader";
+
+    /**
+     * For each recognized role, the bitmask of situations it permits, implied roles included.
+     */
+    private final Map<String, Integer> permissions;
+
+    /**
+     * Create a delegate with the built-in roles and any further roles configured by {@value #ROLE_HIERARCHY}.
+     */
+    public BasicRolesAuthorizationDelegate() {
+        this(System.getProperty(ROLE_HIERARCHY, ""));
+    }
+
+    /**
+     * Create a delegate with the built-in roles and further roles.
+     *
+     * @param hierarchy comma-separated "role&gt;implied" pairs
+     */
+    @VisibleForTesting
+    BasicRolesAuthorizationDelegate(final String hierarchy) {
+        this.permissions = compilePermissions(BUILT_IN_HIERARCHY + "," + hierarchy);
+        // the recognized roles claim role bits of their own before stray names in ACLs can use them all up
+        permissions.keySet().forEach(EffectiveAcl::roleBit);
+        LOGGER.debug("Compiled role permissions {}", permissions);
+    }
+
+    private static Map<String, Integer> compilePermissions(final String hierarchy) {
+        final SetMultimap<String, String> implied = LinkedHashMultimap.create();
+        for (final String pair : Splitter.on(',').trimResults().omitEmptyStrings().split(hierarchy)) {
+            final List<String> roles = Splitter.on('>').trimResults().splitToList(pair);
+            if (roles.size() != 2 || roles.get(0).isEmpty() || roles.get(1).isEmpty()) {
+                throw new IllegalArgumentException("Role hierarchy entries must be role>implied, not: " + pair);
+            }
+            implied.put(roles.get(0), roles.get(1));
+        }
+        final ImmutableMap.Builder<String, Integer> compiled = ImmutableMap.builder();
+        final Set<String> roles = new LinkedHashSet<>(OWN_PERMISSIONS.keySet());
+        roles.addAll(implied.keySet());
+        roles.addAll(implied.values());
+        for (final String role : roles) {
+            int permitted = 0;
+            final Set<String> reached = new HashSet<>();
+            final Deque<String> pending = new ArrayDeque<>(singleton(role));
+            while (!pending.isEmpty()) {
+                final String next = pending.pop();
+                if (reached.add(next)) {
+                    final Integer own = OWN_PERMISSIONS.get(next);
+                    permitted |= own == null ? 0 : own;
+                    pending.addAll(implied.get(next));
+                }
+            }
+            compiled.put(role, permitted);
+        }
+        return compiled.build();
+    }
+
+    private static int permit(final int pathClass, final int action) {
+        return 1 << (pathClass | action);
+    }
 
     /*
      * (non-Javadoc)
@@ -62,39 +152,80 @@ public class BasicRolesAuthorizationDelegate extends AbstractRolesAuthorizationD
     public boolean rolesHavePermission(final Session userSession,
             final String absPath,
             final String[] actions, final Set<String> roles) {
-        if (roles.isEmpty()) {
-            LOGGER.debug("A caller without content roles can do nothing in the repository.");
+        final int permissions = permissions(roles);
+        if (permissions == UNRECOGNIZED) {
             return false;
         }
-        if (roles.contains("admin")) {
-            LOGGER.debug("Granting an admin role permission to perform any action.");
-            return true;
+        final int action = action(actions);
+        final int anywhere = permit(CONTENT, action) | permit(ACL, action);
+        final int permitted = permissions & anywhere;
+        // only when some but not all are permitted does the answer depend on where the action takes place
+        final boolean permission = permitted == anywhere || permitted != 0 &&
+                (permitted & permit(absPath.contains(AUTHZ_DETECTION) ? ACL : CONTENT, action)) != 0;
+        logDecision(permission, roles, actions, absPath);
+        return permission;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.auth.roles.AbstractRolesAuthorizationDelegate#rolesHavePermission(final
+     * Path absPath, final String[] actions, final Set<String> roles)
+     */
+    @Override
+    public boolean rolesHavePermission(final Session userSession, final Path absPath, final String[] actions,
+            final Set<String> roles) {
+        final int permissions = permissions(roles);
+        if (permissions == UNRECOGNIZED) {
+            return false;
         }
-        if (roles.contains("writer")) {
-            if (absPath.contains(AUTHZ_DETECTION)) {
-                if (actions.length == 1 && "read".equals(actions[0])) {
-                    LOGGER.debug("Granting reader role permission to perform a read action.");
-                    return true;
-                } else {
-                    LOGGER.debug("Denying writer role permission to perform an action on an ACL node.");
-                    return false;
-                }
-            } else {
-                LOGGER.debug("Granting writer role permission to perform any action on a non-ACL node.");
-                return true;
+        final int action = action(actions);
+        final int anywhere = permit(CONTENT, action) | permit(ACL, action);
+        final int permitted = permissions & anywhere;
+        final boolean permission = permitted == anywhere || permitted != 0 &&
+                (permitted & permit(isAclPath(absPath) ? ACL : CONTENT, action)) != 0;
+        logDecision(permission, roles, actions, absPath);
+        return permission;
+    }
+
+    /**
+     * Roles are only ever combined by permitting what any of them permits, so EVERYONE's reads need no user roles.
+     */
+    @Override
+    protected boolean permissionsAccumulate() {
+        return true;
+    }
+
+    /**
+     * @return the bitmask of situations the roles permit, or {@link #UNRECOGNIZED} if none of them is known
+     */
+    private int permissions(final Set<String> roles) {
+        int permitted = 0;
+        boolean recognized = false;
+        for (final String role : roles) {
+            final Integer rolePermissions = permissions.get(role);
+            if (rolePermissions != null) {
+                permitted |= rolePermissions;
+                recognized = true;
             }
         }
-        if (roles.contains("reader")) {
-            if (actions.length == 1 && "read".equals(actions[0])) {
-                LOGGER.debug("Granting reader role permission to perform a read action.");
-                return true;
-            }
-            LOGGER.debug("Denying reader role permission to perform a non-read action.");
-            return false;
+        if (!recognized && !roles.isEmpty()) {
+            LOGGER.error("There are roles in session that aren't recognized by this authorization delegate: {}",
+                    roles);
+            return UNRECOGNIZED;
+        }
+        return permitted;
+    }
+
+    private static int action(final String[] actions) {
+        return actions.length == 1 && "read".equals(actions[0]) ? READ : MODIFY;
+    }
+
+    private static void logDecision(final boolean permission, final Set<String> roles, final String[] actions,
+            final Object absPath) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("{} roles {} permission to perform {} on {}", permission ? "Granting" : "Denying", roles,
+                    actions, absPath);
         }
-        LOGGER.error("There are roles in session that aren't recognized by this authorization delegate: {}",
-                roles);
-        return false;
     }
 
     /**
@@ -0,0 +1,154 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.basic;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_ALL_PRINCIPALS;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_USER_PRINCIPAL;
+import static org.fcrepo.http.commons.test.util.TestHelpers.setField;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.common.AccessRolesProvider;
+import org.fcrepo.auth.roles.common.EffectiveAcl;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.PathFactory;
+
+/**
+ * @author agent
+ */
+public class BasicRolesAuthorizationDelegateRemoveChildrenByAclTest {
+
+    private static final String[] REMOVE_ACTION = {"remove"};
+
+    private static final PathFactory PATHS = new ExecutionContext().getValueFactories().getPathFactory();
+
+    private static final EffectiveAcl ADMIN_ACL = EffectiveAcl.of(singletonMap("user", asList("admin")));
+
+    private static final EffectiveAcl WRITER_ACL = EffectiveAcl.of(singletonMap("user", asList("writer")));
+
+    private static final EffectiveAcl READER_ACL = EffectiveAcl.of(singletonMap("user", asList("reader")));
+
+    private BasicRolesAuthorizationDelegate authorizationDelegate;
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private SessionFactory sessionFactory;
+
+    @Mock
+    private Session mockSession;
+
+    @Mock
+    private Principal principal;
+
+    private final Path parentPath = PATHS.create("/parent");
+
+    private final Map<Path, EffectiveAcl> subtreeAcls = new LinkedHashMap<>();
+
+    @Before
+    public void setUp() throws RepositoryException {
+        initMocks(this);
+
+        authorizationDelegate = new BasicRolesAuthorizationDelegate();
+        setField(authorizationDelegate, "accessRolesProvider", accessRolesProvider);
+        setField(authorizationDelegate, "sessionFactory", sessionFactory);
+        setField(authorizationDelegate, "removeCheckByAcl", true);
+
+        when(sessionFactory.getInternalSession()).thenReturn(mockSession);
+
+        when(principal.getName()).thenReturn("user");
+        when(mockSession.getAttribute(FEDORA_USER_PRINCIPAL)).thenReturn(principal);
+        when(mockSession.getAttribute(FEDORA_ALL_PRINCIPALS)).thenReturn(singleton(principal));
+
+        when(accessRolesProvider.findAclForPath(parentPath, mockSession)).thenReturn(WRITER_ACL);
+        when(accessRolesProvider.findAclsInSubtree(parentPath, mockSession)).thenReturn(subtreeAcls);
+    }
+
+    @Test
+    public void shouldPermitWithoutAclsBeneath() throws RepositoryException {
+        assertTrue("Should permit remove for writable node without ACLs beneath it",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+        // the descendants themselves are never visited
+        verify(mockSession, never()).getItem(any(String.class));
+        verify(accessRolesProvider, never()).getAcl(any(Node.class), any(Boolean.class));
+    }
+
+    @Test
+    public void shouldPermitForAdministeredAclBeneath() throws RepositoryException {
+        subtreeAcls.put(PATHS.create("/parent/a/b"), ADMIN_ACL);
+
+        assertTrue("Should permit remove for writable node with an ACL the user administers beneath it",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldDenyForUnwritableAclBeneath() throws RepositoryException {
+        subtreeAcls.put(PATHS.create("/parent/a"), ADMIN_ACL);
+        subtreeAcls.put(PATHS.create("/parent/a/b/c"), READER_ACL);
+
+        assertFalse("Should deny remove for writable node with a read-only descendant",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldPermitForWritableAclBeneath() throws RepositoryException {
+        subtreeAcls.put(PATHS.create("/parent/a"), WRITER_ACL);
+
+        assertTrue("Should permit remove for writable node with a writable ACL-bearing node beneath it",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldPermitForOwnAclWithoutAdmin() throws RepositoryException {
+        subtreeAcls.put(parentPath, WRITER_ACL);
+
+        assertTrue("Should permit remove for writable node carrying its own ACL, as the recursive check does",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldPermitForOwnAclWithAdmin() throws RepositoryException {
+        when(accessRolesProvider.findAclForPath(parentPath, mockSession)).thenReturn(ADMIN_ACL);
+        subtreeAcls.put(parentPath, ADMIN_ACL);
+
+        assertTrue("Should permit remove for administered node carrying an ACL",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+}
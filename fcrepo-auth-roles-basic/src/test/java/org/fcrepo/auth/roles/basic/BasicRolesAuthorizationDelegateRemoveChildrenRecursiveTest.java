@@ -26,10 +26,13 @@ import static org.fcrepo.http.commons.test.util.TestHelpers.setField;
 import static org.fcrepo.kernel.modeshape.testutilities.TestNodeIterator.nodeIterator;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.getField;
 
 import org.fcrepo.auth.roles.common.AccessRolesProvider;
+import org.fcrepo.auth.roles.common.EffectiveAcl;
 import org.fcrepo.http.commons.session.SessionFactory;
 import org.junit.Before;
 import org.junit.Test;
@@ -41,9 +44,10 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
 import java.security.Principal;
-import java.util.Collection;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author Mike Daines
@@ -113,29 +117,29 @@ public class BasicRolesAuthorizationDelegateRemoveChildrenRecursiveTest {
 
         // ACLs for paths and nodes
 
-        final Map<String, Collection<String>> writerAcl =
-                singletonMap("user", asList("writer"));
-        final Map<String, Collection<String>> readerAcl =
-                singletonMap("user", asList("reader"));
+        final EffectiveAcl writerAcl =
+                EffectiveAcl.of(singletonMap("user", asList("writer")));
+        final EffectiveAcl readerAcl =
+                EffectiveAcl.of(singletonMap("user", asList("reader")));
 
-        when(accessRolesProvider.findRolesForPath(parentPath, mockSession))
+        when(accessRolesProvider.findAclForPath(parentPath, mockSession))
                 .thenReturn(writerAcl);
-        when(accessRolesProvider.getRoles(parentNode, false)).thenReturn(
+        when(accessRolesProvider.getAcl(parentNode, false)).thenReturn(
                 writerAcl);
 
-        when(accessRolesProvider.findRolesForPath(writablePath, mockSession))
+        when(accessRolesProvider.findAclForPath(writablePath, mockSession))
                 .thenReturn(writerAcl);
-        when(accessRolesProvider.getRoles(writableNode, false)).thenReturn(
+        when(accessRolesProvider.getAcl(writableNode, false)).thenReturn(
                 writerAcl);
 
-        when(accessRolesProvider.findRolesForPath(readablePath, mockSession))
+        when(accessRolesProvider.findAclForPath(readablePath, mockSession))
                 .thenReturn(readerAcl);
-        when(accessRolesProvider.getRoles(readableNode, false)).thenReturn(
+        when(accessRolesProvider.getAcl(readableNode, false)).thenReturn(
                 readerAcl);
 
-        when(accessRolesProvider.findRolesForPath(noAclPath, mockSession))
+        when(accessRolesProvider.findAclForPath(noAclPath, mockSession))
                 .thenReturn(null);
-        when(accessRolesProvider.getRoles(noAclNode, false)).thenReturn(null);
+        when(accessRolesProvider.getAcl(noAclNode, false)).thenReturn(null);
 
         // Paths for nodes and nodes for paths. The relationships between nodes
         // are actually defined below in the test cases.
@@ -186,6 +190,18 @@ public class BasicRolesAuthorizationDelegateRemoveChildrenRecursiveTest {
                         REMOVE_ACTION));
     }
 
+    @Test
+    public void shouldStopCheckingOnDestroy() throws RepositoryException {
+        when(parentNode.hasNodes()).thenReturn(true);
+        when(parentNode.getNodes()).thenReturn(nodeIterator(writableNode));
+        authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION);
+
+        authorizationDelegate.destroy();
+
+        assertTrue("The threads checking removals should be stopped with the delegate",
+                ((ForkJoinPool) getField(authorizationDelegate, "removeChecks")).isShutdown());
+    }
+
     @Test
     public void shouldDenyForUnwritableChild() throws RepositoryException {
         when(parentNode.hasNodes()).thenReturn(true);
@@ -222,4 +238,46 @@ public class BasicRolesAuthorizationDelegateRemoveChildrenRecursiveTest {
                 authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
     }
 
+    @Test
+    public void shouldPermitForDeepHierarchy() throws RepositoryException {
+        Node node = parentNode;
+        for (int i = 0; i < 5000; i++) {
+            final Node child = node("deep" + i);
+            when(node.hasNodes()).thenReturn(true);
+            when(node.getNodes()).thenReturn(nodeIterator(child));
+            node = child;
+        }
+
+        assertTrue("Should permit remove for writable node with a deep hierarchy of children without ACLs",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldDenyForUnwritableNodeInOneOfManySubtrees() throws RepositoryException {
+        final List<Node> children = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            final Node child = node("child" + i);
+            final List<Node> grandchildren = new ArrayList<>();
+            for (int j = 0; j < 16; j++) {
+                grandchildren.add(i == 11 && j == 7 ? readableNode : node("child" + i + "/" + j));
+            }
+            when(child.hasNodes()).thenReturn(true);
+            when(child.getNodes()).thenReturn(nodeIterator(grandchildren.toArray(new Node[0])));
+            children.add(child);
+        }
+        when(parentNode.hasNodes()).thenReturn(true);
+        when(parentNode.getNodes()).thenReturn(nodeIterator(children.toArray(new Node[0])));
+
+        assertFalse("Should deny remove for writable node with an unwritable descendant in one of many subtrees",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    private Node node(final String path) throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(path);
+        when(node.isNode()).thenReturn(true);
+        when(mockSession.getItem(path)).thenReturn(node);
+        return node;
+    }
+
 }
@@ -0,0 +1,191 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.basic;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_ALL_PRINCIPALS;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_USER_PRINCIPAL;
+import static org.fcrepo.http.commons.test.util.TestHelpers.setField;
+import static org.fcrepo.kernel.modeshape.testutilities.TestNodeIterator.nodeIterator;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.common.AccessRolesProvider;
+import org.fcrepo.auth.roles.common.Constants.JcrName;
+import org.fcrepo.auth.roles.common.EffectiveAcl;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.mockito.Mock;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.PathFactory;
+
+/**
+ * Checks that the recursive and the ACL-based removal checks reach the same decisions on the same trees.
+ *
+ * @author agent
+ */
+@RunWith(Parameterized.class)
+public class BasicRolesAuthorizationDelegateRemoveModesTest {
+
+    private static final String[] REMOVE_ACTION = {"remove"};
+
+    private static final PathFactory PATHS = new ExecutionContext().getValueFactories().getPathFactory();
+
+    private static final EffectiveAcl ADMIN_ACL = EffectiveAcl.of(singletonMap("user", asList("admin")));
+
+    private static final EffectiveAcl WRITER_ACL = EffectiveAcl.of(singletonMap("user", asList("writer")));
+
+    private static final EffectiveAcl READER_ACL = EffectiveAcl.of(singletonMap("user", asList("reader")));
+
+    private final boolean byAcl;
+
+    private BasicRolesAuthorizationDelegate authorizationDelegate;
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private SessionFactory sessionFactory;
+
+    @Mock
+    private Session mockSession;
+
+    @Mock
+    private Principal principal;
+
+    private final Path parentPath = PATHS.create("/parent");
+
+    private Node parentNode;
+
+    private final Map<Path, EffectiveAcl> subtreeAcls = new LinkedHashMap<>();
+
+    /**
+     * @param byAcl whether removals are checked against the ACLs beneath the node
+     */
+    public BasicRolesAuthorizationDelegateRemoveModesTest(final boolean byAcl) {
+        this.byAcl = byAcl;
+    }
+
+    /**
+     * @return the two checks
+     */
+    @Parameters(name = "byAcl={0}")
+    public static List<Object[]> modes() {
+        return asList(new Object[] {false}, new Object[] {true});
+    }
+
+    @Before
+    public void setUp() throws RepositoryException {
+        initMocks(this);
+
+        authorizationDelegate = new BasicRolesAuthorizationDelegate();
+        setField(authorizationDelegate, "accessRolesProvider", accessRolesProvider);
+        setField(authorizationDelegate, "sessionFactory", sessionFactory);
+        setField(authorizationDelegate, "removeCheckByAcl", byAcl);
+
+        when(sessionFactory.getInternalSession()).thenReturn(mockSession);
+        when(principal.getName()).thenReturn("user");
+        when(mockSession.getAttribute(FEDORA_USER_PRINCIPAL)).thenReturn(principal);
+        when(mockSession.getAttribute(FEDORA_ALL_PRINCIPALS)).thenReturn(singleton(principal));
+        when(accessRolesProvider.findAclsInSubtree(parentPath, mockSession)).thenReturn(subtreeAcls);
+    }
+
+    @Test
+    public void shouldPermitWriterToRemoveNodeWithOwnAcl() throws RepositoryException {
+        parentNode = node("/parent", WRITER_ACL, aclNode("/parent"));
+
+        assertTrue(authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldPermitWriterToRemoveWritableAclBeneath() throws RepositoryException {
+        parentNode = node("/parent", WRITER_ACL, aclNode("/parent"),
+                node("/parent/a", WRITER_ACL, aclNode("/parent/a")));
+
+        assertTrue(authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldPermitWriterToRemoveAdministeredAclBeneath() throws RepositoryException {
+        parentNode = node("/parent", WRITER_ACL, node("/parent/a", null,
+                node("/parent/a/b", ADMIN_ACL, aclNode("/parent/a/b"))));
+
+        assertTrue(authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldDenyWriterToRemoveReadOnlyAclBeneath() throws RepositoryException {
+        parentNode = node("/parent", WRITER_ACL, aclNode("/parent"),
+                node("/parent/a", READER_ACL, aclNode("/parent/a")));
+
+        assertFalse(authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldDenyReaderToRemoveNodeWithOwnAcl() throws RepositoryException {
+        parentNode = node("/parent", READER_ACL, aclNode("/parent"));
+
+        assertFalse(authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    /**
+     * Mock a node, which the recursive check walks, and record its ACL, if it has one, for the ACL-based check.
+     */
+    private Node node(final String path, final EffectiveAcl acl, final Node... children) throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(path);
+        when(node.isNode()).thenReturn(true);
+        when(node.hasNodes()).thenReturn(children.length > 0);
+        when(node.getNodes()).thenAnswer(invocation -> nodeIterator(children));
+        when(mockSession.getItem(path)).thenReturn(node);
+        when(mockSession.getNode(path)).thenReturn(node);
+        when(accessRolesProvider.getAcl(node, false)).thenReturn(acl);
+        if (acl != null) {
+            final Path absPath = PATHS.create(path);
+            when(accessRolesProvider.findAclForPath(absPath, mockSession)).thenReturn(acl);
+            subtreeAcls.put(absPath, acl);
+        }
+        return node;
+    }
+
+    /**
+     * Mock the ACL node of a node, as the recursive check finds it: a child named by its prefixed name.
+     */
+    private Node aclNode(final String parent) throws RepositoryException {
+        return node(parent + "/" + JcrName.rbacl.getQualified(), null);
+    }
+}
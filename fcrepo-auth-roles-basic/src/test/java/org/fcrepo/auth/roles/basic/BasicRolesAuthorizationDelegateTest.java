@@ -29,20 +29,21 @@ import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 import org.fcrepo.auth.roles.common.AccessRolesProvider;
+import org.fcrepo.auth.roles.common.EffectiveAcl;
 import org.fcrepo.auth.roles.common.Constants.JcrName;
 import org.fcrepo.http.commons.session.SessionFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.value.Path;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
 import java.security.Principal;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Map;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -54,6 +55,8 @@ public class BasicRolesAuthorizationDelegateTest {
 
     private static final String[] WRITE_ACTION = {"write"};
 
+    private static final String ACL_PATH = "/some/{" + JcrName.NS_URI + "}rbacl";
+
     private BasicRolesAuthorizationDelegate authorizationDelegate;
 
     @Mock
@@ -85,13 +88,16 @@ public class BasicRolesAuthorizationDelegateTest {
     @Mock
     private Path unrecognizablePath;
 
-    @Mock
     private Path authzPath;
 
     @Before
     public void setUp() throws RepositoryException {
         initMocks(this);
 
+        // Identify authzPath as an ACL node
+        authzPath = new ExecutionContext().getValueFactories().getPathFactory()
+                .create("/blah/{" + JcrName.NS_URI + "}rbacl");
+
         authorizationDelegate = new BasicRolesAuthorizationDelegate();
         setField(authorizationDelegate, "accessRolesProvider",
                 accessRolesProvider);
@@ -109,35 +115,30 @@ public class BasicRolesAuthorizationDelegateTest {
 
         // ACLs for paths
 
-        final Map<String, Collection<String>> adminAcl =
-                singletonMap("user", asList("admin"));
-        final Map<String, Collection<String>> writerAcl =
-                singletonMap("user", asList("writer"));
-        final Map<String, Collection<String>> readerAcl =
-                singletonMap("user", asList("reader"));
-        final Map<String, Collection<String>> emptyAcl =
-                singletonMap("user", Collections.<String>emptyList());
-        final Map<String, Collection<String>> unrecognizableAcl =
-                singletonMap("user", asList("something_else"));
-
-        when(accessRolesProvider.findRolesForPath(adminablePath, mockSession))
+        final EffectiveAcl adminAcl =
+                EffectiveAcl.of(singletonMap("user", asList("admin")));
+        final EffectiveAcl writerAcl =
+                EffectiveAcl.of(singletonMap("user", asList("writer")));
+        final EffectiveAcl readerAcl =
+                EffectiveAcl.of(singletonMap("user", asList("reader")));
+        final EffectiveAcl emptyAcl =
+                EffectiveAcl.of(singletonMap("user", Collections.<String>emptyList()));
+        final EffectiveAcl unrecognizableAcl =
+                EffectiveAcl.of(singletonMap("user", asList("something_else")));
+
+        when(accessRolesProvider.findAclForPath(adminablePath, mockSession))
                 .thenReturn(adminAcl);
-        when(accessRolesProvider.findRolesForPath(writablePath, mockSession))
+        when(accessRolesProvider.findAclForPath(writablePath, mockSession))
                 .thenReturn(writerAcl);
-        when(accessRolesProvider.findRolesForPath(readablePath, mockSession))
+        when(accessRolesProvider.findAclForPath(readablePath, mockSession))
                 .thenReturn(readerAcl);
-        when(accessRolesProvider.findRolesForPath(unreadablePath, mockSession))
+        when(accessRolesProvider.findAclForPath(unreadablePath, mockSession))
                 .thenReturn(emptyAcl);
         when(
-                accessRolesProvider.findRolesForPath(unrecognizablePath,
+                accessRolesProvider.findAclForPath(unrecognizablePath,
                         mockSession)).thenReturn(unrecognizableAcl);
-        when(accessRolesProvider.findRolesForPath(authzPath, mockSession))
+        when(accessRolesProvider.findAclForPath(authzPath, mockSession))
                 .thenReturn(writerAcl);
-
-        // Identify authzPath as an ACL node
-
-        final String authzDetection = "/{" + JcrName.NS_URI + "}";
-        when(authzPath.toString()).thenReturn("/blah" + authzDetection);
     }
 
     @Test
@@ -206,4 +207,60 @@ public class BasicRolesAuthorizationDelegateTest {
                 .hasPermission(mockSession, authzPath, WRITE_ACTION));
     }
 
+    @Test
+    public void testPermitReadToWriterForAuthzPath() {
+        assertTrue("Should permit read for ACL path", authorizationDelegate
+                .hasPermission(mockSession, authzPath, READ_ACTION));
+    }
+
+    @Test
+    public void testConfiguredRoleHierarchy() {
+        final BasicRolesAuthorizationDelegate delegate =
+                new BasicRolesAuthorizationDelegate(" curator > writer , manager>curator,auditor>reader");
+        final Set<String> manager = singleton("manager");
+        final Set<String> auditor = singleton("auditor");
+
+        assertTrue("A manager should be a writer through being a curator",
+                delegate.rolesHavePermission(mockSession, "/some/path", WRITE_ACTION, manager));
+        assertFalse("A manager should not change ACLs",
+                delegate.rolesHavePermission(mockSession, ACL_PATH, WRITE_ACTION, manager));
+        assertTrue(delegate.rolesHavePermission(mockSession, "/some/path", READ_ACTION, auditor));
+        assertFalse(delegate.rolesHavePermission(mockSession, "/some/path", WRITE_ACTION, auditor));
+        assertTrue("The built-in roles should be unchanged",
+                delegate.rolesHavePermission(mockSession, ACL_PATH, WRITE_ACTION, singleton("admin")));
+    }
+
+    @Test
+    public void testCyclicRoleHierarchy() {
+        final BasicRolesAuthorizationDelegate delegate =
+                new BasicRolesAuthorizationDelegate("a>b,b>a,b>writer");
+
+        assertTrue(delegate.rolesHavePermission(mockSession, "/some/path", WRITE_ACTION, singleton("a")));
+        assertTrue(delegate.rolesHavePermission(mockSession, "/some/path", WRITE_ACTION, singleton("b")));
+    }
+
+    @Test
+    public void testRoleImplyingNothingIsRecognized() {
+        final BasicRolesAuthorizationDelegate delegate = new BasicRolesAuthorizationDelegate("guest>visitor");
+
+        assertFalse(delegate.rolesHavePermission(mockSession, "/some/path", READ_ACTION, singleton("guest")));
+        assertTrue("A role implying nothing should not stop others granting permission",
+                delegate.rolesHavePermission(mockSession, "/some/path", READ_ACTION,
+                        new HashSet<>(asList("guest", "reader"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedRoleHierarchy() {
+        new BasicRolesAuthorizationDelegate("curator=writer");
+    }
+
+    @Test
+    public void testRecognizedRoleAlongsideUnrecognizedRole() {
+        final Set<String> roles = new HashSet<>(asList("something_else", "reader"));
+        assertTrue("Should permit read for a reader with an unrecognized role too",
+                authorizationDelegate.rolesHavePermission(mockSession, "/some/path", READ_ACTION, roles));
+        assertFalse("Should deny write for a reader with an unrecognized role too",
+                authorizationDelegate.rolesHavePermission(mockSession, "/some/path", WRITE_ACTION, roles));
+    }
+
 }
@@ -0,0 +1,118 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.benchmarks;
+
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_ALL_PRINCIPALS;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_USER_PRINCIPAL;
+import static org.fcrepo.auth.roles.basic.BasicRolesAuthorizationDelegate.EVERYONE_NAME;
+
+import java.security.Principal;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Credentials;
+import javax.jcr.SimpleCredentials;
+
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.security.AuthenticationProvider;
+import org.modeshape.jcr.security.SecurityContext;
+
+/**
+ * Accepts any {@link SimpleCredentials} and records the user, together with {@code EVERYONE}, as the session's
+ * principals, as the servlet container provider does for a real request, so that benchmarks can exercise the
+ * authorization delegates end to end.
+ *
+ * @author agent
+ */
+public class BenchmarkAuthenticationProvider implements AuthenticationProvider {
+
+    @Override
+    public ExecutionContext authenticate(final Credentials credentials, final String repositoryName,
+            final String workspaceName, final ExecutionContext repositoryContext,
+            final Map<String, Object> sessionAttributes) {
+        if (!(credentials instanceof SimpleCredentials)) {
+            return null;
+        }
+        final Principal user = new BenchmarkPrincipal(((SimpleCredentials) credentials).getUserID());
+        final Set<Principal> principals = new HashSet<>();
+        principals.add(user);
+        principals.add(new BenchmarkPrincipal(EVERYONE_NAME));
+        sessionAttributes.put(FEDORA_USER_PRINCIPAL, user);
+        sessionAttributes.put(FEDORA_ALL_PRINCIPALS, principals);
+        return repositoryContext.with(new BenchmarkSecurityContext(user.getName()));
+    }
+
+    private static class BenchmarkPrincipal implements Principal {
+
+        private final String name;
+
+        BenchmarkPrincipal(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof BenchmarkPrincipal && name.equals(((BenchmarkPrincipal) o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class BenchmarkSecurityContext implements SecurityContext {
+
+        private final String userName;
+
+        BenchmarkSecurityContext(final String userName) {
+            this.userName = userName;
+        }
+
+        @Override
+        public boolean isAnonymous() {
+            return false;
+        }
+
+        @Override
+        public String getUserName() {
+            return userName;
+        }
+
+        @Override
+        public boolean hasRole(final String roleName) {
+            return true;
+        }
+
+        @Override
+        public void logout() {
+            // nothing to release
+        }
+    }
+}
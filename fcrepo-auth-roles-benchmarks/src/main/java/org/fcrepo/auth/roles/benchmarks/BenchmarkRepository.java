@@ -0,0 +1,192 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.benchmarks;
+
+import static java.util.Collections.shuffle;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import javax.jcr.Credentials;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.common.AccessRoles;
+import org.fcrepo.auth.roles.common.RbAclAccessRolesProvider;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.JcrRepository;
+import org.modeshape.jcr.ModeShapeEngine;
+import org.modeshape.jcr.RepositoryConfiguration;
+import org.modeshape.jcr.api.nodetype.NodeTypeManager;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.PathFactory;
+
+/**
+ * An embedded, in-memory ModeShape repository holding a generated tree of nodes, some of which carry ACLs. The tree
+ * is built from a fixed seed so that every run of a benchmark sees the same shape.
+ *
+ * @author agent
+ */
+public class BenchmarkRepository {
+
+    private static final PathFactory PATHS = new ExecutionContext().getValueFactories().getPathFactory();
+
+    private static final long SEED = 42L;
+
+    private static final int BATCH_SIZE = 500;
+
+    private final ModeShapeEngine engine = new ModeShapeEngine();
+
+    private final JcrRepository repository;
+
+    private final List<String> leaves = new ArrayList<>();
+
+    /**
+     * Start the repository and register the access control node types.
+     *
+     * @throws Exception if the repository cannot be started
+     */
+    public BenchmarkRepository() throws Exception {
+        engine.start();
+        final RepositoryConfiguration config =
+                RepositoryConfiguration.read(BenchmarkRepository.class.getResource("/repository.json"));
+        repository = engine.deploy(config);
+        engine.startRepository(config.getName()).get();
+
+        final Session session = login();
+        try {
+            final NodeTypeManager types = (NodeTypeManager) session.getWorkspace().getNodeTypeManager();
+            types.registerNodeTypes(AccessRoles.class.getResourceAsStream("/cnd/access-control.cnd"), true);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Build a tree in which every node has the same number of children and a random share of them carry an ACL.
+     * The root always carries one.
+     *
+     * @param depth the number of levels beneath the root
+     * @param fanOut the number of children of each node
+     * @param aclDensity the probability that a node carries an ACL
+     * @throws RepositoryException if the tree cannot be written
+     */
+    public void populate(final int depth, final int fanOut, final double aclDensity) throws RepositoryException {
+        final Random random = new Random(SEED);
+        final RbAclAccessRolesProvider writer = new RbAclAccessRolesProvider();
+        final Session session = login();
+        try {
+            writer.postRoles(session.getRootNode(), acl(random));
+            List<Node> level = singletonList(session.getRootNode());
+            int pending = 0;
+            for (int d = 0; d < depth; d++) {
+                final List<Node> next = new ArrayList<>(level.size() * fanOut);
+                for (final Node parent : level) {
+                    for (int i = 0; i < fanOut; i++) {
+                        final Node child = parent.addNode("n" + i);
+                        if (random.nextDouble() < aclDensity) {
+                            writer.postRoles(child, acl(random));
+                        }
+                        next.add(child);
+                        if (++pending == BATCH_SIZE) {
+                            session.save();
+                            pending = 0;
+                        }
+                    }
+                }
+                level = next;
+            }
+            session.save();
+            for (final Node leaf : level) {
+                leaves.add(leaf.getPath());
+            }
+            shuffle(leaves, random);
+        } finally {
+            session.logout();
+        }
+    }
+
+    private static Map<String, Set<String>> acl(final Random random) {
+        final Map<String, Set<String>> acl = new HashMap<>();
+        acl.put("admin", singleton("admin"));
+        acl.put("writer" + random.nextInt(10), singleton("writer"));
+        acl.put("reader" + random.nextInt(10), singleton("reader"));
+        return acl;
+    }
+
+    /**
+     * @return the paths of the deepest nodes of the tree, in a fixed random order
+     */
+    public Path[] leafPaths() {
+        return leaves.stream().map(PATHS::create).toArray(Path[]::new);
+    }
+
+    /**
+     * @param levels how many missing levels each path has
+     * @return paths that do not exist yet, beneath the deepest nodes of the tree, as a new resource would have
+     */
+    public Path[] missingPaths(final int levels) {
+        final StringBuilder suffix = new StringBuilder();
+        for (int i = 0; i < levels; i++) {
+            suffix.append("/new").append(i);
+        }
+        return leaves.stream().map(leaf -> PATHS.create(leaf + suffix)).toArray(Path[]::new);
+    }
+
+    /**
+     * @return a new session, which the caller must log out
+     * @throws RepositoryException if the session cannot be opened
+     */
+    public Session login() throws RepositoryException {
+        return repository.login();
+    }
+
+    /**
+     * @param credentials the credentials of the user to log in as
+     * @return a new session, which the caller must log out
+     * @throws RepositoryException if the session cannot be opened
+     */
+    public Session login(final Credentials credentials) throws RepositoryException {
+        return repository.login(credentials);
+    }
+
+    /**
+     * @return a session factory over this repository, as the providers expect to be given
+     */
+    public SessionFactory sessionFactory() {
+        return new SessionFactory(repository);
+    }
+
+    /**
+     * Stop the repository, discarding its content.
+     *
+     * @throws Exception if the repository does not stop cleanly
+     */
+    public void shutdown() throws Exception {
+        engine.shutdown().get();
+    }
+}
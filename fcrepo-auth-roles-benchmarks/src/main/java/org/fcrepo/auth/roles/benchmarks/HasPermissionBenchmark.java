@@ -0,0 +1,150 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.benchmarks;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.fcrepo.auth.roles.basic.BasicRolesAuthorizationDelegate;
+import org.fcrepo.auth.roles.common.RbAclAccessRolesProvider;
+import org.modeshape.jcr.value.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures a complete read check through the basic delegate on leaf nodes governed by indexed ACLs, once the
+ * session's roles for each ACL have been cached. This is the steady state of a busy repository, and should allocate
+ * nothing; run through {@link #main(String[])}, the benchmark fails if it does.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class HasPermissionBenchmark {
+
+    private static final String[] READ = {"read"};
+
+    /**
+     * The most a check may allocate, in bytes; a little above zero, to allow for the profiler's own noise.
+     */
+    private static final double MAX_ALLOCATION = 1.0;
+
+    private BenchmarkRepository repository;
+
+    private RbAclAccessRolesProvider provider;
+
+    private BasicRolesAuthorizationDelegate delegate;
+
+    private Session session;
+
+    private Path[] paths;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new BenchmarkRepository();
+        repository.populate(4, 4, 0.2);
+        paths = repository.leafPaths();
+        provider = new RbAclAccessRolesProvider(repository.sessionFactory());
+        provider.init();
+        delegate = new BasicRolesAuthorizationDelegate();
+        inject(delegate, "accessRolesProvider", provider);
+        inject(delegate, "sessionFactory", repository.sessionFactory());
+        session = repository.login(new SimpleCredentials("writer3", new char[0]));
+        for (final Path path : paths) {
+            delegate.hasPermission(session, path, READ);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        session.logout();
+        delegate.destroy();
+        provider.destroy();
+        repository.shutdown();
+    }
+
+    @Benchmark
+    public boolean hasPermission() {
+        final Path path = paths[next];
+        next = (next + 1) % paths.length;
+        return delegate.hasPermission(session, path, READ);
+    }
+
+    private static void inject(final Object target, final String name, final Object value) throws Exception {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                final Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (final NoSuchFieldException e) {
+                // declared further up
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    /**
+     * Run the benchmark with the GC profiler and fail if a check allocates.
+     *
+     * @param args ignored
+     * @throws Exception if the benchmark cannot be run, or allocates
+     */
+    public static void main(final String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .include(HasPermissionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        for (final RunResult run : new Runner(options).run()) {
+            for (final Map.Entry<String, Result> secondary : run.getSecondaryResults().entrySet()) {
+                if (secondary.getKey().endsWith("gc.alloc.rate.norm")
+                        && secondary.getValue().getScore() > MAX_ALLOCATION) {
+                    throw new IllegalStateException("hasPermission allocated " + secondary.getValue().getScore() +
+                            " bytes per check");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.benchmarks;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.common.EffectiveAcl;
+import org.fcrepo.auth.roles.common.RbAclAccessRolesProvider;
+import org.modeshape.jcr.value.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures finding the effective ACL of a resource that is about to be created, as happens on every PUT or POST,
+ * by walking the repository without the index. The provider probes each missing level for existence; the baseline
+ * reads each level and recovers from the failure, as the provider once did.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class NewResourceLookupBenchmark {
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"1", "3"})
+    public int missingLevels;
+
+    private BenchmarkRepository repository;
+
+    private RbAclAccessRolesProvider provider;
+
+    private Session session;
+
+    private Path[] paths;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new BenchmarkRepository();
+        repository.populate(depth, 4, 0.2);
+        paths = repository.missingPaths(missingLevels);
+        provider = new RbAclAccessRolesProvider();
+        session = repository.login();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        session.logout();
+        repository.shutdown();
+    }
+
+    @Benchmark
+    public EffectiveAcl probeForExistence() throws RepositoryException {
+        return provider.findAclForPath(nextPath(), session);
+    }
+
+    @Benchmark
+    public EffectiveAcl recoverFromMissing() throws RepositoryException {
+        Node node = null;
+        for (Path p = nextPath(); node == null; p = p.getParent()) {
+            try {
+                node = p.isRoot() ? session.getRootNode() : session.getNode(p.getString());
+            } catch (final PathNotFoundException e) {
+                // try the parent
+            }
+        }
+        return provider.getAcl(node, true);
+    }
+
+    private Path nextPath() {
+        final Path path = paths[next];
+        next = (next + 1) % paths.length;
+        return path;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.benchmarks;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.fcrepo.auth.roles.common.AbstractRolesAuthorizationDelegate.resolveUserRoles;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.fcrepo.auth.roles.common.EffectiveAcl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures resolving the roles a user holds under an ACL, in its map and compact forms, for ACLs and principal
+ * sets of varying size. Half of the user's principals appear in the ACL.
+ *
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ResolveUserRolesBenchmark {
+
+    private static final String[] ROLES = {"admin", "writer", "reader"};
+
+    @Param({"10", "2000"})
+    public int aclSize;
+
+    @Param({"1", "20"})
+    public int principals;
+
+    private Map<String, Collection<String>> acl;
+
+    private EffectiveAcl effectiveAcl;
+
+    private Set<Principal> userPrincipals;
+
+    @Setup
+    public void setUp() {
+        acl = new HashMap<>();
+        for (int i = 0; i < aclSize; i++) {
+            acl.put("principal" + i, singletonList(ROLES[i % ROLES.length]));
+        }
+        effectiveAcl = EffectiveAcl.of(acl);
+        userPrincipals = new HashSet<>();
+        for (int i = 0; i < principals; i++) {
+            final String name = i % 2 == 0 ? "principal" + (i * aclSize / principals) : "outsider" + i;
+            userPrincipals.add(() -> name);
+        }
+    }
+
+    @Benchmark
+    public Set<String> resolveUserRoles() {
+        return resolveUserRoles(acl, userPrincipals);
+    }
+
+    @Benchmark
+    public long resolveEffectiveAcl() {
+        return effectiveAcl.resolve(userPrincipals);
+    }
+
+    @Benchmark
+    public Set<String> resolveEffectiveAclRoles() {
+        return effectiveAcl.resolveRoles(userPrincipals);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.benchmarks;
+
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.assignment;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.rbacl;
+
+import java.util.Set;
+
+import org.fcrepo.auth.roles.basic.BasicRolesAuthorizationDelegate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the basic delegate's decision for a single role, action and kind of path.
+ *
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class RolesHavePermissionBenchmark {
+
+    private static final String CONTENT_PATH = "/n0/n1/n2";
+
+    private static final String ACL_PATH = CONTENT_PATH + "/" + rbacl.getExpanded() + "/" + assignment.getExpanded();
+
+    @Param({"admin", "writer", "reader"})
+    public String role;
+
+    @Param({"read", "add_node"})
+    public String action;
+
+    @Param({"false", "true"})
+    public boolean aclPath;
+
+    private final BasicRolesAuthorizationDelegate delegate = new BasicRolesAuthorizationDelegate();
+
+    private String path;
+
+    private String[] actions;
+
+    private Set<String> roles;
+
+    @Setup
+    public void setUp() {
+        path = aclPath ? ACL_PATH : CONTENT_PATH;
+        actions = new String[] {action};
+        roles = singleton(role);
+    }
+
+    @Benchmark
+    public boolean rolesHavePermission() {
+        return delegate.rolesHavePermission(null, path, actions, roles);
+    }
+}
@@ -17,18 +17,23 @@
  */
 package org.fcrepo.auth.roles.common;
 
-import static java.util.stream.Collectors.toSet;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.Collections.unmodifiableSet;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import java.security.Principal;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
-import javax.jcr.Item;
-import javax.jcr.Node;
-import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
@@ -39,6 +44,11 @@ import org.modeshape.jcr.value.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Timer;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+
 /**
  * Policy enforcement point for roles-based authentication
  * @author Gregory Jansen
@@ -51,14 +61,91 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
     protected static final String AUTHZ_DETECTION = "/{" +
             Constants.JcrName.NS_URI + "}";
 
+    public static final String EVERYONE_NAME = "EVERYONE";
+
+    /**
+     * The security principal for every request, that represents the "EVERYONE" user.
+     */
+    protected static final Principal EVERYONE = new Principal() {
+
+        @Override
+        public String getName() {
+            return EVERYONE_NAME;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+
+    };
+
+    /**
+     * Number of threads that check the descendants of nodes being removed, shared by all requests.
+     */
+    public static final String REMOVE_CHECK_PARALLELISM = "fcrepo.auth.roles.remove.parallelism";
+
+    /**
+     * How to check that the descendants of a node being removed may be removed too: "recursive" (the default) to
+     * visit every descendant, or "acl" to visit only those carrying their own ACL.
+     */
+    public static final String REMOVE_CHECK = "fcrepo.auth.roles.remove.check";
+
     private static final String[] REMOVE_ACTIONS = {"remove"};
 
+    private static final String[] READ_ACTIONS = {"read"};
+
+    /**
+     * Comma-separated names of principals, such as the accounts of ingest services or container roles surfaced as
+     * principals, that are permitted every action everywhere without any ACL being consulted.
+     */
+    public static final String SUPER_ADMINS = "fcrepo.auth.roles.superadmins";
+
+    /**
+     * Most idle internal sessions each delegate keeps for looking up ACLs.
+     */
+    public static final String SESSION_POOL_SIZE = "fcrepo.auth.roles.sessions";
+
     @Inject
     private AccessRolesProvider accessRolesProvider = null;
 
     @Inject
     private SessionFactory sessionFactory = null;
 
+    private volatile InternalSessionPool internalSessions;
+
+    /**
+     * Threads that check the descendants of a node being removed, created with the first such check.
+     */
+    private volatile ForkJoinPool removeChecks;
+
+    /**
+     * Whether removals are checked against the ACLs beneath the node rather than against every descendant.
+     */
+    private boolean removeCheckByAcl = "acl".equalsIgnoreCase(System.getProperty(REMOVE_CHECK));
+
+    /**
+     * Names of the principals permitted everything, from {@link #SUPER_ADMINS}.
+     */
+    private Set<String> superAdmins = ImmutableSet.copyOf(
+            Splitter.on(',').trimResults().omitEmptyStrings().split(System.getProperty(SUPER_ADMINS, "")));
+
+    /**
+     * Roles already resolved for each user session, by the ACL they were resolved from. A session's principals do
+     * not change during its life, and ACLs are shared between all the paths beneath the node that carries them and
+     * replaced rather than modified, so the identity of the ACL is enough to recognize a repeat lookup. Both levels
+     * hold their keys weakly, so entries go once a session or a superseded ACL is no longer in use.
+     */
+    private final Map<Session, Map<EffectiveAcl, Set<String>>> sessionRoles =
+            new MapMaker().weakKeys().makeMap();
+
+    /**
+     * Whether EVERYONE may read the content governed by each ACL, decided once per ACL. Together with the
+     * provider's index this marks out the publicly readable subtrees; as ACLs are replaced rather than modified, an
+     * entry is dropped along with an ACL that has been superseded.
+     */
+    private final Map<EffectiveAcl, Boolean> publicReads = new MapMaker().weakKeys().makeMap();
+
     /**
      * Gather effectives roles
      *
@@ -68,22 +155,124 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
      */
     public static Set<String> resolveUserRoles(final Map<String, Collection<String>> acl,
                     final Collection<Principal> principals) {
-        return principals.stream().map(Principal::getName).filter(acl::containsKey)
-            .peek(principal -> LOGGER.debug("request principal matched role assignment: {}", principal))
-            .map(acl::get)
-            .flatMap(Collection::stream)
-            .collect(toSet());
+        final Set<String> roles = new HashSet<>();
+        for (final Principal principal : principals) {
+            final Collection<String> assigned = acl.get(principal.getName());
+            if (assigned != null) {
+                LOGGER.debug("request principal matched role assignment: {}", principal.getName());
+                roles.addAll(assigned);
+            }
+        }
+        return roles;
     }
 
     @Override
     public boolean hasPermission(final Session session, final Path absPath, final String[] actions) {
         LOGGER.debug("Does user have permission for actions: {}, on path: {}", actions, absPath);
-        final boolean permission = doHasPermission(session, absPath, actions);
+        final boolean permission;
+        // timed by hand, as a Timer.Context would be allocated on every check
+        final long start = System.nanoTime();
+        try {
+            permission = doHasPermission(session, absPath, actions);
+        } finally {
+            RolesMetrics.HAS_PERMISSION.update(System.nanoTime() - start, NANOSECONDS);
+        }
+        RolesMetrics.decision(actions, permission);
 
-        LOGGER.debug("Permission for actions: {}, on: {} = {}", actions, absPath, permission);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Permission for actions: {}, on: {} = {}", actions, absPath, permission);
+        }
         return permission;
     }
 
+    /**
+     * Check the same actions on many paths at once, as when filtering the children of a large container. Paths are
+     * grouped by the ACL that governs them, so each ACL is resolved to roles once, and the subclass is asked once for
+     * each distinct set of roles, in and out of an ACL. This holds for any delegate whose decision depends only on
+     * the roles and on whether the path lies within an ACL. Removals, which depend on what lies beneath each path,
+     * are checked one path at a time.
+     *
+     * @param session the user session
+     * @param paths the paths to check
+     * @param actions the actions requested on every path
+     * @return whether the actions are permitted, by path, in the order given
+     */
+    public Map<Path, Boolean> hasPermissions(final Session session, final Collection<Path> paths,
+            final String[] actions) {
+        LOGGER.debug("Does user have permission for actions: {}, on {} paths", actions, paths.size());
+        final Map<Path, Boolean> permissions = new LinkedHashMap<>();
+        final Timer.Context timer = RolesMetrics.HAS_PERMISSIONS.time();
+        try {
+            if (actions.length == 1 && "remove".equals(actions[0])) {
+                for (final Path path : paths) {
+                    permissions.put(path, doHasPermission(session, path, actions));
+                }
+            } else {
+                doHasPermissions(session, paths, actions, permissions);
+            }
+        } finally {
+            timer.stop();
+        }
+        for (final Boolean permission : permissions.values()) {
+            RolesMetrics.decision(actions, permission);
+        }
+        LOGGER.debug("Permission for actions: {}, on {} paths = {}", actions, paths.size(), permissions);
+        return permissions;
+    }
+
+    private void doHasPermissions(final Session session, final Collection<Path> paths, final String[] actions,
+            final Map<Path, Boolean> permissions) {
+        final Set<Principal> allPrincipals = getUserPrincipal(session) == null ? null : getPrincipals(session);
+        if (allPrincipals == null) {
+            paths.forEach(path -> permissions.put(path, false));
+            return;
+        }
+        if (actions.length == 1 && "remove_child_nodes".equals(actions[0]) || isSuperAdmin(allPrincipals)) {
+            paths.forEach(path -> permissions.put(path, true));
+            return;
+        }
+
+        // decisions already made, by roles, outside and within an ACL
+        final Map<Set<String>, Boolean> contentDecisions = new HashMap<>();
+        final Map<Set<String>, Boolean> aclDecisions = new HashMap<>();
+        // borrowed for the first path whose ACL cannot be found in memory, and kept for the rest
+        InternalSessionPool sessions = null;
+        Session internalSession = null;
+        Path current = null;
+        try {
+            for (final Path path : paths) {
+                current = path;
+                EffectiveAcl acl = accessRolesProvider.findIndexedAclForPath(path);
+                if (acl == null) {
+                    if (internalSession == null) {
+                        sessions = internalSessions();
+                        internalSession = sessions.borrow();
+                    }
+                    acl = accessRolesProvider.findAclForPath(path, internalSession);
+                }
+                if (isPublicRead(session, path, actions, acl, allPrincipals)) {
+                    permissions.put(path, true);
+                    continue;
+                }
+                final Set<String> roles = resolveSessionRoles(session, acl, allPrincipals);
+                final Map<Set<String>, Boolean> decisions = isAclPath(path) ? aclDecisions : contentDecisions;
+                Boolean permission = decisions.get(roles);
+                if (permission == null) {
+                    permission = rolesHavePermission(session, path, actions, roles);
+                    decisions.put(roles, permission);
+                }
+                permissions.put(path, permission);
+            }
+        } catch (final RepositoryException e) {
+            throw new RepositoryRuntimeException("Cannot look up node information on " + current +
+                    " for permissions check.", e);
+        } finally {
+            if (internalSession != null) {
+                sessions.release(internalSession);
+            }
+        }
+    }
+
     private boolean doHasPermission(final Session session, final Path absPath, final String[] actions) {
         final Set<String> roles;
 
@@ -97,18 +286,34 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
             return false;
         }
 
-        try {
-            final Session internalSession = sessionFactory.getInternalSession();
-            final Map<String, Collection<String>> acl =
-                    accessRolesProvider.findRolesForPath(absPath,
-                            internalSession);
-            roles = resolveUserRoles(acl, allPrincipals);
-            LOGGER.debug("roles for this request: {}", roles);
-        } catch (final RepositoryException e) {
-            throw new RepositoryRuntimeException("Cannot look up node information on " + absPath +
-                    " for permissions check.", e);
+        // decided before any ACL is looked up, and covering everything beneath a node being removed
+        if (isSuperAdmin(allPrincipals)) {
+            LOGGER.debug("Super-admin {} permitted without ACL checks", userPrincipal);
+            return true;
         }
 
+        final long start = System.nanoTime();
+        // an internal session is only needed when the ACL cannot be found in memory
+        EffectiveAcl acl = accessRolesProvider.findIndexedAclForPath(absPath);
+        if (acl == null) {
+            final InternalSessionPool sessions = internalSessions();
+            final Session internalSession = sessions.borrow();
+            try {
+                acl = accessRolesProvider.findAclForPath(absPath, internalSession);
+            } catch (final RepositoryException e) {
+                throw new RepositoryRuntimeException("Cannot look up node information on " + absPath +
+                        " for permissions check.", e);
+            } finally {
+                sessions.release(internalSession);
+            }
+        }
+        RolesMetrics.FIND_ROLES_FOR_PATH.update(System.nanoTime() - start, NANOSECONDS);
+        if (isPublicRead(session, absPath, actions, acl, allPrincipals)) {
+            return true;
+        }
+        roles = resolveSessionRoles(session, acl, allPrincipals);
+        LOGGER.debug("roles for this request: {}", roles);
+
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("roles: {}, actions: {}, path: {}", roles, actions, absPath);
             if (actions.length > 1) { // have yet to see more than one
@@ -124,19 +329,160 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
             return true;
         }
 
-        if (!rolesHavePermission(session, absPath.toString(), actions, roles)) {
+        if (!rolesHavePermission(session, absPath, actions, roles)) {
             return false;
         }
 
         if (actions.length == 1 && "remove".equals(actions[0])) {
             // you must be able to delete all the children
-            // TODO make recursive/ACL-query-based check configurable
+            if (removeCheckByAcl) {
+                return canRemoveChildrenByAcl(session, absPath, allPrincipals, roles);
+            }
             return canRemoveChildrenRecursive(session, absPath.toString(),
                     allPrincipals, roles);
         }
         return true;
     }
 
+    /**
+     * @param principals effective principals of the session
+     * @return true if any of them is a super-admin
+     */
+    private boolean isSuperAdmin(final Set<Principal> principals) {
+        if (superAdmins.isEmpty()) {
+            return false;
+        }
+        for (final Principal principal : principals) {
+            if (superAdmins.contains(principal.getName())) {
+                RolesMetrics.SUPER_ADMIN_CHECKS.inc();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a check is a read of content that EVERYONE may read, and so can be permitted without resolving the
+     * user's own roles. This holds only for a user who is one of EVERYONE, and for a delegate whose permissions
+     * accumulate with roles.
+     *
+     * @param session the user session
+     * @param absPath the path checked
+     * @param actions the actions requested
+     * @param acl the ACL governing the path, or null if it is not known
+     * @param principals effective principals of the session
+     * @return true if the read is permitted to everyone
+     */
+    private boolean isPublicRead(final Session session, final Path absPath, final String[] actions,
+            final EffectiveAcl acl, final Set<Principal> principals) {
+        if (acl == null || actions.length != 1 || !"read".equals(actions[0]) || isAclPath(absPath) ||
+                !permissionsAccumulate()) {
+            return false;
+        }
+        final Principal everyone = getEveryonePrincipal();
+        if (everyone == null || !principals.contains(everyone)) {
+            return false;
+        }
+        Boolean publicRead = publicReads.get(acl);
+        if (publicRead == null) {
+            // by name, so that roles without a bit of their own are counted too
+            final Set<String> roles = acl.resolveRoles(singleton(everyone));
+            publicRead = rolesHavePermission(session, absPath, READ_ACTIONS, roles);
+            publicReads.put(acl, publicRead);
+        }
+        if (publicRead) {
+            RolesMetrics.PUBLIC_READS.inc();
+        }
+        return publicRead;
+    }
+
+    /**
+     * Whether a set of roles is always permitted everything each of its roles is permitted alone, so that holding
+     * more roles never takes a permission away. Only then may a read that EVERYONE may make be permitted without
+     * resolving the user's own roles. Delegates where one role can deny what another allows must return false.
+     *
+     * @return true if permissions accumulate with roles; false, the default, otherwise
+     */
+    protected boolean permissionsAccumulate() {
+        return false;
+    }
+
+    /**
+     * Gather effective roles, reusing those already resolved for this session from the same ACL.
+     *
+     * @param session the user session
+     * @param acl access control list
+     * @param principals effective principals of the session
+     * @return set of effective content roles
+     */
+    private Set<String> resolveSessionRoles(final Session session, final EffectiveAcl acl,
+            final Set<Principal> principals) {
+        if (acl == null) {
+            return emptySet();
+        }
+        Map<EffectiveAcl, Set<String>> resolved = sessionRoles.get(session);
+        if (resolved == null) {
+            resolved = new MapMaker().weakKeys().concurrencyLevel(1).makeMap();
+            final Map<EffectiveAcl, Set<String>> existing =
+                    sessionRoles.putIfAbsent(session, resolved);
+            if (existing != null) {
+                resolved = existing;
+            }
+        }
+        Set<String> roles = resolved.get(acl);
+        RolesMetrics.sessionRoles(roles != null);
+        if (roles == null) {
+            roles = unmodifiableSet(acl.resolveRoles(principals));
+            resolved.put(acl, roles);
+        }
+        return roles;
+    }
+
+    private InternalSessionPool internalSessions() {
+        InternalSessionPool sessions = internalSessions;
+        if (sessions == null) {
+            synchronized (this) {
+                sessions = internalSessions;
+                if (sessions == null) {
+                    sessions = new InternalSessionPool(sessionFactory, Integer.getInteger(SESSION_POOL_SIZE,
+                            2 * Runtime.getRuntime().availableProcessors()));
+                    internalSessions = sessions;
+                }
+            }
+        }
+        return sessions;
+    }
+
+    private ForkJoinPool removeChecks() {
+        ForkJoinPool pool = removeChecks;
+        if (pool == null) {
+            synchronized (this) {
+                pool = removeChecks;
+                if (pool == null) {
+                    pool = new ForkJoinPool(Integer.getInteger(REMOVE_CHECK_PARALLELISM,
+                            Runtime.getRuntime().availableProcessors()));
+                    removeChecks = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Log out the internal sessions kept for looking up ACLs and stop the threads that check removals.
+     */
+    @PreDestroy
+    public void destroy() {
+        final InternalSessionPool sessions = internalSessions;
+        if (sessions != null) {
+            sessions.close();
+        }
+        final ForkJoinPool pool = removeChecks;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
     private static Principal getUserPrincipal(final Session session) {
         final Object value = session.getAttribute(FEDORA_USER_PRINCIPAL);
         if (value instanceof Principal) {
@@ -165,49 +511,67 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
                                                final String parentPath,
                                                final Set<Principal> allPrincipals,
                                                final Set<String> parentRoles) {
+        LOGGER.debug("Recursive child remove permission checks for: {}", parentPath);
+        final Timer.Context timer = RolesMetrics.CAN_REMOVE_CHILDREN_RECURSIVE.time();
         try {
-            final Session internalSession = sessionFactory.getInternalSession();
-            LOGGER.debug("Recursive child remove permission checks for: {}",
-                    parentPath);
-            final Item item = internalSession.getItem(parentPath);
-            if (!item.isNode()) {
-                // this is a property and has no children...
-                return true;
-            }
-            final Node parent = (Node) item;
-            if (!parent.hasNodes()) {
-                return true;
-            }
-            final NodeIterator ni = parent.getNodes();
-            while (ni.hasNext()) {
-                final Node n = ni.nextNode();
-                // are there unique roles?
-                final Set<String> roles;
-                final Map<String, Collection<String>> acl = accessRolesProvider.getRoles(n, false);
-
-                if (acl != null) {
-                    roles = resolveUserRoles(acl, allPrincipals);
-                } else {
-                    roles = parentRoles;
-                }
-                if (rolesHavePermission(userSession, n.getPath(),
-                        REMOVE_ACTIONS,
-                        roles)) {
+            return removeChecks().invoke(new RemovePermissionCheck(this, accessRolesProvider, internalSessions(),
+                    userSession, allPrincipals, parentPath, parentRoles));
+        } finally {
+            timer.stop();
+        }
+    }
 
-                    if (!canRemoveChildrenRecursive(userSession, n.getPath(),
-                            allPrincipals, roles)) {
+    /**
+     * Check the descendants of a node being removed by visiting only those that carry their own ACL, and the ACL
+     * itself. Every other descendant has the same roles as its nearest ACL-bearing ancestor (or the node itself), and
+     * differs from it only in lying outside an ACL, so it is permitted if that ancestor is. This holds for any
+     * delegate whose decision depends only on the roles and on whether the path lies within an ACL.
+     *
+     * <p>Each path is given to the delegate as the JCR path the recursive check would give it, so that both checks
+     * classify the same paths alike: in particular an ACL node beneath the node being removed is, as there, checked
+     * by its prefixed name, which does not mark it as an ACL path. Removing a node takes its ACL with it, which
+     * needs the permission to remove the node, not to change the ACL.</p>
+     *
+     * @param userSession the user session
+     * @param absPath the path of the node being removed
+     * @param allPrincipals all principals
+     * @param roles the roles on the node being removed
+     * @return true if permitted
+     */
+    private boolean canRemoveChildrenByAcl(final Session userSession, final Path absPath,
+            final Set<Principal> allPrincipals, final Set<String> roles) {
+        LOGGER.debug("ACL-based child remove permission checks for: {}", absPath);
+        final InternalSessionPool sessions = internalSessions();
+        final Session internalSession = sessions.borrow();
+        final Timer.Context timer = RolesMetrics.CAN_REMOVE_CHILDREN_BY_ACL.time();
+        try {
+            final Map<Path, EffectiveAcl> acls = accessRolesProvider.findAclsInSubtree(absPath, internalSession);
+            for (final Map.Entry<Path, EffectiveAcl> acl : acls.entrySet()) {
+                final Path path = acl.getKey();
+                final String jcrPath = AccessRolesIndex.toJcrPath(path, internalSession);
+                final Set<String> aclRoles;
+                if (path.equals(absPath)) {
+                    aclRoles = roles;
+                } else {
+                    aclRoles = acl.getValue().resolveRoles(allPrincipals);
+                    if (!rolesHavePermission(userSession, jcrPath, REMOVE_ACTIONS, aclRoles)) {
+                        LOGGER.info("Remove permission denied at {} with roles {}", jcrPath, aclRoles);
                         return false;
                     }
-                } else {
-                    LOGGER.info("Remove permission denied at {} with roles {}", n.getPath(), roles);
+                }
+                final String aclPath = (path.isRoot() ? "" : jcrPath) + "/" + Constants.JcrName.rbacl.getQualified();
+                if (!rolesHavePermission(userSession, aclPath, REMOVE_ACTIONS, aclRoles)) {
+                    LOGGER.info("Remove permission denied at {} with roles {}", aclPath, aclRoles);
                     return false;
                 }
             }
             return true;
         } catch (final RepositoryException e) {
-            throw new RepositoryRuntimeException(
-                    "Cannot lookup child permission check information for " +
-                            parentPath, e);
+            throw new RepositoryRuntimeException("Cannot look up ACLs beneath " + absPath +
+                    " for permissions check.", e);
+        } finally {
+            timer.stop();
+            sessions.release(internalSession);
         }
     }
 
@@ -224,4 +588,36 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
     public abstract boolean rolesHavePermission(final Session userSession, final String absPath,
             final String[] actions, final Set<String> roles);
 
+    /**
+     * Determine permissions based on supplied roles, for a path not yet turned into a string. This is what the
+     * delegate calls for each check; subclasses that can decide without the path as a string, such as with
+     * {@link #isAclPath(Path)}, should override it to spare building one.
+     *
+     * @param userSession the user session
+     * @param absPath path to the object
+     * @param actions requested action
+     * @param roles effective roles for this request and content
+     * @return true if role has permission
+     */
+    public boolean rolesHavePermission(final Session userSession, final Path absPath, final String[] actions,
+            final Set<String> roles) {
+        return rolesHavePermission(userSession, absPath.toString(), actions, roles);
+    }
+
+    /**
+     * Whether a path lies within an ACL, as a path string containing {@link #AUTHZ_DETECTION} does, found without
+     * building the string.
+     *
+     * @param absPath the path
+     * @return true if any segment of the path is in the access control namespace
+     */
+    protected static boolean isAclPath(final Path absPath) {
+        for (int i = 0; i < absPath.size(); i++) {
+            if (Constants.JcrName.NS_URI.equals(absPath.getSegment(i).getName().getNamespaceUri())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 }
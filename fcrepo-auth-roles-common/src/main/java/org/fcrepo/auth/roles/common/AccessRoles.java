@@ -17,12 +17,16 @@
  */
 package org.fcrepo.auth.roles.common;
 
+import static java.util.Collections.emptyMap;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import static org.fcrepo.kernel.modeshape.utils.FedoraTypesUtils.getJcrNode;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import javax.inject.Inject;
 import javax.jcr.Node;
@@ -39,6 +43,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
@@ -46,6 +51,7 @@ import javax.ws.rs.core.UriInfo;
 
 import org.fcrepo.http.commons.AbstractResource;
 import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
+import org.fcrepo.http.commons.domain.PATCH;
 import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
 import org.fcrepo.kernel.api.models.FedoraBinary;
 import org.fcrepo.kernel.api.models.FedoraResource;
@@ -116,7 +122,8 @@ public class AccessRoles extends AbstractResource {
     }
 
     /**
-     * Retrieve the roles assigned to each principal on this specific path.
+     * Retrieve the roles assigned to each principal on this specific path. The response is tagged with the version
+     * of the ACL, and is not rebuilt if the client already has that version.
      *
      * @param effective the effective roles
      * @return JSON representation of assignment map
@@ -142,13 +149,22 @@ public class AccessRoles extends AbstractResource {
                 LOGGER.debug("accessRolesProvider is null");
                 response = Response.status(Status.NOT_FOUND);
             } else {
-                final Map<String, Collection<String>> data =
-                        provider.getRoles(node, (effective != null));
-                if (data == null) {
+                final EffectiveAcl acl = provider.getAcl(node, (effective != null));
+                if (acl == null) {
                     LOGGER.debug("no content response");
                     response = Response.noContent();
                 } else {
-                    response = Response.ok(data);
+                    final EntityTag etag = tag(acl);
+                    final Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+                    if (notModified != null) {
+                        LOGGER.debug("not modified response");
+                        response = notModified;
+                    } else {
+                        // in a fixed order, so that equal ACLs have equal representations
+                        final Map<String, Collection<String>> data = new TreeMap<>();
+                        acl.toMap().forEach((principal, roles) -> data.put(principal, new TreeSet<>(roles)));
+                        response = Response.ok(data).tag(etag);
+                    }
                 }
             }
         } finally {
@@ -176,12 +192,15 @@ public class AccessRoles extends AbstractResource {
             validatePOST(data);
 
             final FedoraResource resource = resource();
+            final Node node;
 
             if (resource instanceof FedoraBinary) {
-                this.getAccessRolesProvider().postRoles(getJcrNode(((FedoraBinary) resource).getDescription()), data);
+                node = getJcrNode(((FedoraBinary) resource).getDescription());
             } else {
-                this.getAccessRolesProvider().postRoles(getJcrNode(resource), data);
+                node = getJcrNode(resource);
             }
+            evaluatePreconditions(node);
+            this.getAccessRolesProvider().postRoles(node, data);
             session.save();
             LOGGER.debug("Saved access roles {}", data);
             response =
@@ -197,14 +216,88 @@ public class AccessRoles extends AbstractResource {
         return response.build();
     }
 
+    /**
+     * Change the role assignments of some principals at the specified node, leaving the others untouched. The request
+     * is a JSON object whose "add" and "remove" members each give roles by principal, for example
+     * {"add":{"alice":["writer"]},"remove":{"bob":["reader"]}}.
+     *
+     * @param data the roles to add and remove
+     * @return response
+     * @throws RepositoryException if the assignments cannot be changed
+     */
+    @PATCH
+    @Consumes(APPLICATION_JSON)
+    @Timed
+    public Response patch(final Map<String, Map<String, Set<String>>> data)
+            throws RepositoryException {
+        LOGGER.debug("PATCH Received request param: {}", request);
+        try {
+            final Map<String, Set<String>> additions = member(data, "add");
+            final Map<String, Set<String>> removals = member(data, "remove");
+            validatePATCH(additions, removals);
+
+            final FedoraResource resource = resource();
+            final Node node;
+
+            if (resource instanceof FedoraBinary) {
+                node = getJcrNode(((FedoraBinary) resource).getDescription());
+            } else {
+                node = getJcrNode(resource);
+            }
+            evaluatePreconditions(node);
+            this.getAccessRolesProvider().patchRoles(node, additions, removals);
+            session.save();
+            LOGGER.debug("Added access roles {}, removed {}", additions, removals);
+            return Response.noContent().build();
+
+        } catch (final IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.status(Status.BAD_REQUEST).build());
+        } finally {
+            session.logout();
+        }
+    }
+
+    private static Map<String, Set<String>> member(final Map<String, Map<String, Set<String>>> data,
+            final String name) {
+        final Map<String, Set<String>> member = data == null ? null : data.get(name);
+        return member == null ? emptyMap() : member;
+    }
+
+    /**
+     * @param additions
+     * @param removals
+     */
+    private void validatePATCH(final Map<String, Set<String>> additions, final Map<String, Set<String>> removals) {
+        if (additions.isEmpty() && removals.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Patched access roles must include roles to add or remove");
+        }
+        validateAssignments(additions);
+        validateAssignments(removals);
+        for (final Map.Entry<String, Set<String>> entry : additions.entrySet()) {
+            final Set<String> removed = removals.get(entry.getKey());
+            if (removed != null && !Collections.disjoint(entry.getValue(), removed)) {
+                throw new IllegalArgumentException(
+                        "Roles cannot be both added and removed for the same principal");
+            }
+        }
+    }
+
     /**
      * @param data
      */
-    private void validatePOST(final Map<String, Set<String>> data) {
+    static void validatePOST(final Map<String, Set<String>> data) {
         if (data.isEmpty()) {
             throw new IllegalArgumentException(
                     "Posted access roles must include role assignments");
         }
+        validateAssignments(data);
+    }
+
+    /**
+     * @param data
+     */
+    private static void validateAssignments(final Map<String, Set<String>> data) {
         for (final Map.Entry<String, Set<String>> entry : data.entrySet()) {
             if (entry.getKey() == null || entry.getValue() == null || entry.getValue().isEmpty()) {
                 throw new IllegalArgumentException(
@@ -214,15 +307,29 @@ public class AccessRoles extends AbstractResource {
                 throw new IllegalArgumentException(
                         "Principal names cannot be an empty strings or whitespace.");
             }
+            checkControlCharacters(entry.getKey());
             for (final String r : entry.getValue()) {
-                if (r.trim().length() == 0) {
+                if (r == null || r.trim().length() == 0) {
                     throw new IllegalArgumentException(
                             "Role names cannot be an empty strings or whitespace.");
                 }
+                checkControlCharacters(r);
             }
         }
     }
 
+    /**
+     * Control characters separate the names of an ACL held in a single property, so neither storage layout accepts
+     * them.
+     *
+     * @param name a principal or role name
+     */
+    private static void checkControlCharacters(final String name) {
+        if (name.chars().anyMatch(Character::isISOControl)) {
+            throw new IllegalArgumentException("Principal and role names cannot contain control characters.");
+        }
+    }
+
     /**
      * Delete the access roles and node type.
      * @return response
@@ -241,6 +348,7 @@ public class AccessRoles extends AbstractResource {
                 node = getJcrNode(resource());
             }
 
+            evaluatePreconditions(node);
             this.getAccessRolesProvider().deleteRoles(node);
             session.save();
             return Response.noContent().build();
@@ -249,6 +357,26 @@ public class AccessRoles extends AbstractResource {
         }
     }
 
+    /**
+     * Check the conditions of the request, such as If-Match, against the current version of a node's own ACL.
+     *
+     * @param node the node whose ACL is to be changed
+     * @throws WebApplicationException with the response to give if the conditions do not hold
+     */
+    private void evaluatePreconditions(final Node node) {
+        final EffectiveAcl acl = this.getAccessRolesProvider().getAcl(node, false);
+        final Response.ResponseBuilder failed =
+                acl == null ? request.evaluatePreconditions() : request.evaluatePreconditions(tag(acl));
+        if (failed != null) {
+            LOGGER.debug("Preconditions failed for access roles of: {}", externalPath);
+            throw new WebApplicationException(failed.build());
+        }
+    }
+
+    private static EntityTag tag(final EffectiveAcl acl) {
+        return new EntityTag(acl.version());
+    }
+
     private UriInfo getUriInfo() {
         return this.uriInfo;
     }
@@ -0,0 +1,118 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static javax.jcr.observation.Event.NODE_MOVED;
+import static javax.jcr.observation.Event.NODE_REMOVED;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.rbacl;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.slf4j.Logger;
+
+/**
+ * Keeps the access roles provider's index current with persisted changes to ACLs: the rbaclAssignable mixin
+ * coming or going, an assignment node being added, changed or removed, or a node that may carry ACLs being removed
+ * or moved. All of the changes in one batch of events are gathered first so that each ACL is read only once.
+ *
+ * @author agent
+ */
+class AccessRolesChangeListener implements EventListener {
+
+    private static final Logger LOGGER = getLogger(AccessRolesChangeListener.class);
+
+    private static final String MIXIN_TYPES = "/jcr:mixinTypes";
+
+    private static final String RBACL_SEGMENT = "/" + rbacl.getQualified();
+
+    private final RbAclAccessRolesProvider provider;
+
+    /**
+     * @param provider the provider whose index is maintained
+     */
+    AccessRolesChangeListener(final RbAclAccessRolesProvider provider) {
+        this.provider = provider;
+    }
+
+    @Override
+    public void onEvent(final EventIterator events) {
+        final Set<String> acls = new LinkedHashSet<>();
+        final Set<String> subtrees = new LinkedHashSet<>();
+        try {
+            while (events.hasNext()) {
+                final Event event = events.nextEvent();
+                final String path = event.getPath();
+                final int acl = path.indexOf(RBACL_SEGMENT);
+                if (acl >= 0) {
+                    acls.add(acl == 0 ? "/" : path.substring(0, acl));
+                } else if (event.getType() == NODE_REMOVED) {
+                    subtrees.add(path);
+                } else if (event.getType() == NODE_MOVED) {
+                    // a reorder among siblings carries no source path, and changes no path
+                    final Object source = event.getInfo().get("srcAbsPath");
+                    if (source != null) {
+                        subtrees.add(source.toString());
+                        subtrees.add(path);
+                    }
+                } else if (path.endsWith(MIXIN_TYPES)) {
+                    final int owner = path.length() - MIXIN_TYPES.length();
+                    acls.add(owner == 0 ? "/" : path.substring(0, owner));
+                }
+            }
+            LOGGER.trace("ACL changes at {}, subtree changes at {}", acls, subtrees);
+            // each subtree is read whole, taking with it any subtree or ACL beneath it
+            for (final String subtree : subtrees) {
+                if (!hasAncestorIn(subtree, subtrees)) {
+                    provider.reindexSubtree(subtree);
+                }
+            }
+            for (final String owner : acls) {
+                if (!subtrees.contains(owner) && !hasAncestorIn(owner, subtrees)) {
+                    provider.reindex(owner);
+                }
+            }
+        } catch (final RepositoryException e) {
+            // rebuilt aside, so lookups are answered from the old index until the new one is complete
+            LOGGER.error("Unable to process ACL change events, rebuilding the ACL index", e);
+            try {
+                provider.reindexSubtree("/");
+            } catch (final RepositoryException ex) {
+                LOGGER.error("Unable to rebuild the ACL index", ex);
+            }
+        }
+    }
+
+    private static boolean hasAncestorIn(final String path, final Set<String> paths) {
+        if (path.equals("/")) {
+            return false;
+        }
+        for (int slash = path.lastIndexOf('/'); slash >= 0; slash = path.lastIndexOf('/', slash - 1)) {
+            if (paths.contains(slash == 0 ? "/" : path.substring(0, slash))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
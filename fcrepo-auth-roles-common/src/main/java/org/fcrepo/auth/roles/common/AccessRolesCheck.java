@@ -0,0 +1,235 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.fcrepo.http.commons.AbstractResource;
+import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
+import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
+import org.fcrepo.kernel.api.models.FedoraResource;
+
+import org.jvnet.hk2.annotations.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Scope;
+
+import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * RESTful interface to check many permissions of the calling user at once
+ *
+ * @author agent
+ */
+@Scope("request")
+@Path("/fcr:accessroles/check")
+public class AccessRolesCheck extends AbstractResource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessRolesCheck.class);
+
+    /**
+     * Paths checked together, sharing the resolution of the ACLs that govern them, before their decisions are
+     * written out.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * The most paths one request may check.
+     */
+    static final int MAX_PATHS = 10000;
+
+    /**
+     * The most actions one request may check.
+     */
+    static final int MAX_ACTIONS = 10;
+
+    /**
+     * The most paths one request may check removal of, since each such check visits every node below the path.
+     */
+    static final int MAX_REMOVE_PATHS = 10;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    protected IdentifierConverter<Resource, FedoraResource> identifierTranslator;
+
+    @Inject
+    protected Session session;
+
+    @Inject
+    @Optional
+    private AbstractRolesAuthorizationDelegate authorizationDelegate;
+
+    @Context protected UriInfo uriInfo;
+
+    /**
+     * Default JAX-RS entry point
+     */
+    public AccessRolesCheck() {
+        super();
+    }
+
+    /**
+     * Check whether the calling user may perform each of the given actions on each of the given paths. The request
+     * is a JSON object listing "paths" and "actions"; the response maps each path to whether each action is
+     * permitted there, for example {"/a":{"read":true,"write":false}}. Decisions are streamed as they are made.
+     * A request may check up to {@value #MAX_PATHS} paths and {@value #MAX_ACTIONS} actions, and "remove" on up to
+     * {@value #MAX_REMOVE_PATHS} paths.
+     *
+     * @param data the paths and actions to check
+     * @return JSON representation of the decisions
+     */
+    @POST
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @Timed
+    public Response check(final Map<String, List<String>> data) {
+        final List<String> actions;
+        final Map<String, org.modeshape.jcr.value.Path> paths;
+        try {
+            actions = new ArrayList<>(new LinkedHashSet<>(validate(data, "actions")));
+            final List<String> externalPaths = validate(data, "paths");
+            if (externalPaths.size() > MAX_PATHS || actions.size() > MAX_ACTIONS) {
+                throw new WebApplicationException(Response.status(Status.REQUEST_ENTITY_TOO_LARGE)
+                        .entity("Permission checks may include at most " + MAX_PATHS + " paths and " + MAX_ACTIONS +
+                                " actions").build());
+            }
+            if (actions.contains("remove") && externalPaths.size() > MAX_REMOVE_PATHS) {
+                throw new WebApplicationException(Response.status(Status.REQUEST_ENTITY_TOO_LARGE)
+                        .entity("Removal may be checked on at most " + MAX_REMOVE_PATHS + " paths at once").build());
+            }
+            paths = toPaths(externalPaths);
+        } catch (final IllegalArgumentException e) {
+            session.logout();
+            throw new WebApplicationException(e, Response.status(Status.BAD_REQUEST).build());
+        } catch (final RuntimeException e) {
+            session.logout();
+            throw e;
+        }
+        if (authorizationDelegate == null) {
+            LOGGER.debug("authorizationDelegate is null");
+            session.logout();
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        LOGGER.debug("Checking actions: {} on {} paths", actions, paths.size());
+        final StreamingOutput stream = out -> {
+            try {
+                write(new BufferedWriter(new OutputStreamWriter(out, UTF_8)), paths, actions);
+            } finally {
+                session.logout();
+            }
+        };
+        return Response.ok(stream).build();
+    }
+
+    @VisibleForTesting
+    void write(final Writer writer, final Map<String, org.modeshape.jcr.value.Path> paths,
+            final List<String> actions) throws IOException {
+        final JsonGenerator json = MAPPER.getFactory().createGenerator(writer);
+        json.writeStartObject();
+        for (final List<Map.Entry<String, org.modeshape.jcr.value.Path>> batch :
+                Lists.partition(new ArrayList<>(paths.entrySet()), BATCH_SIZE)) {
+            final List<org.modeshape.jcr.value.Path> batchPaths = new ArrayList<>(batch.size());
+            batch.forEach(path -> batchPaths.add(path.getValue()));
+            final List<Map<org.modeshape.jcr.value.Path, Boolean>> decisions = new ArrayList<>(actions.size());
+            for (final String action : actions) {
+                decisions.add(authorizationDelegate.hasPermissions(session, batchPaths, new String[] {action}));
+            }
+            for (final Map.Entry<String, org.modeshape.jcr.value.Path> path : batch) {
+                json.writeObjectFieldStart(path.getKey());
+                for (int i = 0; i < actions.size(); i++) {
+                    json.writeBooleanField(actions.get(i), decisions.get(i).get(path.getValue()));
+                }
+                json.writeEndObject();
+            }
+            json.flush();
+        }
+        json.writeEndObject();
+        json.flush();
+    }
+
+    private static List<String> validate(final Map<String, List<String>> data, final String key) {
+        final List<String> values = data == null ? null : data.get(key);
+        if (values == null || values.isEmpty()) {
+            throw new IllegalArgumentException("Permission checks must include one or more " + key);
+        }
+        for (final String value : values) {
+            if (value == null || value.trim().length() == 0) {
+                throw new IllegalArgumentException("Checked " + key + " cannot be empty strings or whitespace.");
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @param externalPaths the paths as given by the client
+     * @return the repository path of each, by the path as given
+     */
+    private Map<String, org.modeshape.jcr.value.Path> toPaths(final List<String> externalPaths) {
+        final Map<String, org.modeshape.jcr.value.Path> paths = new LinkedHashMap<>();
+        try {
+            for (final String externalPath : externalPaths) {
+                if (!paths.containsKey(externalPath)) {
+                    final String jcrPath = translator().asString(translator().toDomain(externalPath));
+                    paths.put(externalPath, AccessRolesIndex.toPath(jcrPath, session));
+                }
+            }
+        } catch (final RepositoryException e) {
+            throw new IllegalArgumentException("Checked paths must be within the repository", e);
+        }
+        return paths;
+    }
+
+    protected IdentifierConverter<Resource, FedoraResource> translator() {
+        if (identifierTranslator == null) {
+            identifierTranslator = new HttpResourceConverter(session,
+                    uriInfo.getBaseUriBuilder().clone().path("{path: .*}"));
+        }
+
+        return identifierTranslator;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.fcrepo.auth.roles.common.AccessRolesImport.NDJSON;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.fcrepo.http.commons.AbstractResource;
+import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
+import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
+import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
+import org.fcrepo.kernel.api.models.FedoraResource;
+
+import org.jvnet.hk2.annotations.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Scope;
+
+import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * RESTful interface to dump every ACL in the repository
+ *
+ * @author agent
+ */
+@Scope("request")
+@Path("/fcr:accessroles/export")
+public class AccessRolesExport extends AbstractResource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessRolesExport.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    protected IdentifierConverter<Resource, FedoraResource> identifierTranslator;
+
+    @Inject
+    protected Session session;
+
+    @Inject
+    @Optional
+    private AccessRolesProvider accessRolesProvider;
+
+    @Context protected UriInfo uriInfo;
+
+    /**
+     * Export every ACL the calling user may read, one per line, in the form accepted by
+     * {@link AccessRolesImport}: a JSON object giving the external "path" of the resource carrying the ACL and the
+     * "roles" assigned there by principal. ACLs are written as they are found.
+     *
+     * @return the ACLs, as newline-delimited JSON
+     */
+    @GET
+    @Produces(NDJSON)
+    @Timed
+    public Response export() {
+        if (accessRolesProvider == null) {
+            LOGGER.debug("accessRolesProvider is null");
+            session.logout();
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        final StreamingOutput stream = out -> {
+            try {
+                exportRecords(new BufferedWriter(new OutputStreamWriter(out, UTF_8)));
+            } finally {
+                session.logout();
+            }
+        };
+        return Response.ok(stream).build();
+    }
+
+    @VisibleForTesting
+    void exportRecords(final Writer writer) throws IOException {
+        int count = 0;
+        try {
+            // the translator resolves imported paths against this, so exported paths are taken relative to it
+            final String base = URI.create(translator().toDomain("/").getURI()).getPath();
+            for (final Iterator<Node> nodes = accessRolesProvider.findAssignableNodes(session); nodes.hasNext();) {
+                final Node node = nodes.next();
+                final EffectiveAcl acl = accessRolesProvider.getAcl(node, false);
+                if (acl == null) {
+                    // the ACL was removed since the node was found
+                    LOGGER.debug("Skipping {}, which no longer carries an ACL", node.getPath());
+                    continue;
+                }
+                final Map<String, Object> record = new LinkedHashMap<>();
+                record.put("path", externalPath(node, base));
+                record.put("roles", acl.toMap());
+                writer.write(MAPPER.writeValueAsString(record));
+                writer.write('\n');
+                count++;
+            }
+        } catch (final RepositoryException e) {
+            throw new RepositoryRuntimeException(e);
+        }
+        writer.flush();
+        LOGGER.debug("Exported {} ACLs", count);
+    }
+
+    /**
+     * @param node a node carrying an ACL
+     * @param base the path of the URI of the repository root
+     * @return the path of the node's resource, as {@link AccessRolesImport} resolves it
+     */
+    private String externalPath(final Node node, final String base) throws RepositoryException {
+        final FedoraResource resource = nodeService.find(session, node.getPath());
+        final String path = URI.create(translator().reverse().convert(resource).getURI()).getPath();
+        return path.length() > base.length() ? "/" + path.substring(base.length()) : "/";
+    }
+
+    protected IdentifierConverter<Resource, FedoraResource> translator() {
+        if (identifierTranslator == null) {
+            identifierTranslator = new HttpResourceConverter(session,
+                    uriInfo.getBaseUriBuilder().clone().path("{path: .*}"));
+        }
+
+        return identifierTranslator;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Base64;
+
+/**
+ * Command line entry point that saves the ACLs of a running repository, as exported by {@link AccessRolesExport}.
+ *
+ * <pre>
+ * java -cp fcrepo-auth-roles-common.jar org.fcrepo.auth.roles.common.AccessRolesExportTool \
+ *     http://localhost:8080/rest [user:password] [file]
+ * </pre>
+ *
+ * The ACLs are written to the file, or to standard output if none is given.
+ *
+ * @author agent
+ */
+public final class AccessRolesExportTool {
+
+    private AccessRolesExportTool() {
+    }
+
+    /**
+     * @param args the base URL of the repository's REST API, then optionally the credentials to authenticate with
+     *        and the file to write
+     * @throws IOException if the ACLs cannot be read or written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: AccessRolesExportTool <base-url> [user:password] [file]");
+            System.exit(2);
+        }
+        final String base = args[0].endsWith("/") ? args[0] : args[0] + "/";
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL(base + "fcr:accessroles/export").openConnection();
+        connection.setRequestProperty("Accept", AccessRolesImport.NDJSON);
+        if (args.length > 1) {
+            connection.setRequestProperty("Authorization",
+                    "Basic " + Base64.getEncoder().encodeToString(args[1].getBytes(UTF_8)));
+        }
+        final int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            System.err.println("Export failed: " + status + " " + connection.getResponseMessage());
+            System.exit(1);
+        }
+        try (final InputStream in = connection.getInputStream();
+                final OutputStream out = args.length > 2 ? new FileOutputStream(args[2]) : stdout()) {
+            final byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return standard output, flushed but left open when closed
+     */
+    private static OutputStream stdout() {
+        return new FilterOutputStream(System.out) {
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.fcrepo.kernel.modeshape.utils.FedoraTypesUtils.getJcrNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.fcrepo.http.commons.AbstractResource;
+import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
+import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
+import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
+import org.fcrepo.kernel.api.models.FedoraBinary;
+import org.fcrepo.kernel.api.models.FedoraResource;
+
+import org.jvnet.hk2.annotations.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Scope;
+
+import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * RESTful interface to load the ACLs of many resources at once
+ *
+ * @author agent
+ */
+@Scope("request")
+@Path("/fcr:accessroles/import")
+public class AccessRolesImport extends AbstractResource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessRolesImport.class);
+
+    /**
+     * Newline-delimited JSON: one JSON object per line.
+     */
+    public static final String NDJSON = "application/x-ndjson";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final TypeReference<Map<String, Set<String>>> ASSIGNMENTS =
+            new TypeReference<Map<String, Set<String>>>() {};
+
+    protected IdentifierConverter<Resource, FedoraResource> identifierTranslator;
+
+    @Inject
+    protected Session session;
+
+    @Inject
+    @Optional
+    private AccessRolesProvider accessRolesProvider;
+
+    @Context protected UriInfo uriInfo;
+
+    /**
+     * Import ACLs, one per line of the request, each a JSON object giving the "path" of a resource and the "roles"
+     * to assign there by principal, for example {"path":"/a","roles":{"alice":["writer"]}}. Each ACL replaces any
+     * the resource had. The ACLs are saved in batches, and the response reports as they happen each batch saved and
+     * each record that could not be imported, then the totals. Only one batch is ever held in memory.
+     *
+     * @param records the ACLs to import
+     * @param batchSize the number of ACLs saved together
+     * @return the progress and errors of the import, as newline-delimited JSON
+     */
+    @POST
+    @Consumes(NDJSON)
+    @Produces(NDJSON)
+    @Timed
+    public Response importRoles(final InputStream records,
+            @QueryParam("batch") @DefaultValue("100") final int batchSize) {
+        if (batchSize < 1) {
+            session.logout();
+            throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                    .entity("Batch size must be at least 1").build());
+        }
+        if (accessRolesProvider == null) {
+            LOGGER.debug("accessRolesProvider is null");
+            session.logout();
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        final StreamingOutput stream = out -> {
+            try {
+                importRecords(new BufferedReader(new InputStreamReader(records, UTF_8)),
+                        new BufferedWriter(new OutputStreamWriter(out, UTF_8)), batchSize);
+            } finally {
+                session.logout();
+            }
+        };
+        return Response.ok(stream).build();
+    }
+
+    @VisibleForTesting
+    void importRecords(final BufferedReader reader, final Writer writer, final int batchSize) throws IOException {
+        final Batch batch = new Batch(writer);
+        int line = 0;
+        for (String record = reader.readLine(); record != null; record = reader.readLine()) {
+            line++;
+            if (record.trim().isEmpty()) {
+                continue;
+            }
+            final String path;
+            final Node node;
+            final Map<String, Set<String>> data;
+            try {
+                final JsonNode json = MAPPER.readTree(record);
+                path = json.path("path").asText(null);
+                if (path == null) {
+                    throw new IllegalArgumentException("Imported access roles must include a path");
+                }
+                final JsonNode roles = json.get("roles");
+                data = roles == null ? null : MAPPER.convertValue(roles, ASSIGNMENTS);
+                if (data == null) {
+                    throw new IllegalArgumentException("Imported access roles must include role assignments");
+                }
+                AccessRoles.validatePOST(data);
+                node = node(path);
+            } catch (final JsonProcessingException | IllegalArgumentException | RepositoryException e) {
+                batch.reject(line, e);
+                continue;
+            }
+            try {
+                accessRolesProvider.postRoles(node, data);
+            } catch (final RepositoryException | RuntimeException e) {
+                batch.discard(line, e);
+                continue;
+            }
+            batch.add(line);
+            if (batch.size() >= batchSize) {
+                batch.save();
+            }
+        }
+        batch.save();
+        batch.finish();
+    }
+
+    /**
+     * @param path the external path of a resource
+     * @return the node that carries the resource's ACL
+     */
+    private Node node(final String path) throws RepositoryException {
+        final Resource subject = translator().toDomain(path);
+        if (!session.nodeExists(translator().asString(subject))) {
+            throw new IllegalArgumentException("No resource found at " + path);
+        }
+        final FedoraResource resource = translator().convert(subject);
+        if (resource instanceof FedoraBinary) {
+            return getJcrNode(((FedoraBinary) resource).getDescription());
+        }
+        return getJcrNode(resource);
+    }
+
+    protected IdentifierConverter<Resource, FedoraResource> translator() {
+        if (identifierTranslator == null) {
+            identifierTranslator = new HttpResourceConverter(session,
+                    uriInfo.getBaseUriBuilder().clone().path("{path: .*}"));
+        }
+
+        return identifierTranslator;
+    }
+
+    /**
+     * The ACLs applied since the last save, and the report of the import so far.
+     */
+    private class Batch {
+
+        private final Writer writer;
+
+        private int first;
+
+        private int last;
+
+        private int size;
+
+        private int imported;
+
+        private int failed;
+
+        Batch(final Writer writer) {
+            this.writer = writer;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void add(final int line) {
+            if (size++ == 0) {
+                first = line;
+            }
+            last = line;
+        }
+
+        /**
+         * A record could not be applied, and changed nothing.
+         */
+        void reject(final int line, final Exception e) throws IOException {
+            LOGGER.debug("Rejected access roles on line {}", line, e);
+            failed++;
+            final Map<String, Object> report = new LinkedHashMap<>();
+            report.put("line", line);
+            report.put("error", e.getMessage());
+            write(report);
+        }
+
+        /**
+         * A record may have been partly applied, so it and the rest of the batch are discarded.
+         */
+        void discard(final int line, final Exception e) throws IOException {
+            LOGGER.warn("Failed to apply access roles on line {}, discarding {} more", line, size, e);
+            refresh();
+            failed += size + 1;
+            final Map<String, Object> report = new LinkedHashMap<>();
+            report.put("line", line);
+            report.put("error", e.getMessage());
+            if (size > 0) {
+                report.put("discarded", new int[] {first, last});
+            }
+            write(report);
+            size = 0;
+        }
+
+        void save() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            final Map<String, Object> report = new LinkedHashMap<>();
+            report.put("lines", new int[] {first, last});
+            try {
+                session.save();
+                imported += size;
+                report.put("saved", size);
+                LOGGER.debug("Saved access roles from lines {} to {}", first, last);
+            } catch (final RepositoryException | RepositoryRuntimeException e) {
+                LOGGER.warn("Failed to save access roles from lines {} to {}", first, last, e);
+                refresh();
+                failed += size;
+                report.put("error", e.getMessage());
+            }
+            size = 0;
+            write(report);
+        }
+
+        private void refresh() {
+            try {
+                session.refresh(false);
+            } catch (final RepositoryException e) {
+                throw new RepositoryRuntimeException(e);
+            }
+        }
+
+        void finish() throws IOException {
+            final Map<String, Object> report = new LinkedHashMap<>();
+            report.put("imported", imported);
+            report.put("failed", failed);
+            write(report);
+        }
+
+        private void write(final Map<String, Object> report) throws IOException {
+            writer.write(MAPPER.writeValueAsString(report));
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Collections.emptyNavigableSet;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.rbacl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Path.Segment;
+import org.modeshape.jcr.value.PathFactory;
+
+/**
+ * In-memory index of the nodes that carry an ACL, arranged as a path trie so that the effective roles of any path
+ * are found with a single longest-prefix match, and of the paths of the ACLs naming each principal. Lookups never
+ * block; changes are serialized.
+ *
+ * @author agent
+ */
+class AccessRolesIndex {
+
+    private static final PathFactory PATHS = new ExecutionContext().getValueFactories().getPathFactory();
+
+    /**
+     * Replaced whole when the ACLs of the entire repository are reindexed, so read it once per lookup.
+     */
+    private volatile Entry root = new Entry();
+
+    /**
+     * The paths of the ACLs that name each principal, in path order.
+     */
+    private final Map<String, NavigableSet<Path>> principalPaths = new ConcurrentHashMap<>();
+
+    /**
+     * Find the ACL of the nearest ACL-bearing ancestor-or-self of a path.
+     *
+     * @param absPath the real or potential node path
+     * @return the ACL, or null if no ancestor carries one
+     */
+    EffectiveAcl find(final Path absPath) {
+        Entry entry = root;
+        EffectiveAcl acl = entry.acl;
+        for (int i = 0; i < absPath.size(); i++) {
+            entry = entry.children.get(absPath.getSegment(i));
+            if (entry == null) {
+                break;
+            }
+            final EffectiveAcl assigned = entry.acl;
+            if (assigned != null) {
+                acl = assigned;
+            }
+        }
+        return acl;
+    }
+
+    /**
+     * Find the ACL of a node itself.
+     *
+     * @param absPath the node path
+     * @return the ACL, or null if the node carries none
+     */
+    EffectiveAcl get(final Path absPath) {
+        final Entry entry = entry(absPath);
+        return entry == null ? null : entry.acl;
+    }
+
+    /**
+     * Find the ACL of every ACL-bearing node at or beneath a path.
+     *
+     * @param absPath the root of the subtree
+     * @return the ACLs, by the path of the node carrying them, ancestors first
+     */
+    Map<Path, EffectiveAcl> findAll(final Path absPath) {
+        final Map<Path, EffectiveAcl> found = new LinkedHashMap<>();
+        final Entry entry = entry(absPath);
+        if (entry != null) {
+            collect(absPath, entry, found);
+        }
+        return found;
+    }
+
+    private static void collect(final Path path, final Entry entry,
+            final Map<Path, EffectiveAcl> found) {
+        final EffectiveAcl acl = entry.acl;
+        if (acl != null) {
+            found.put(path, acl);
+        }
+        for (final Map.Entry<Segment, Entry> child : entry.children.entrySet()) {
+            collect(PATHS.create(path, child.getKey()), child.getValue(), found);
+        }
+    }
+
+    /**
+     * Find the paths of the ACLs that name a principal.
+     *
+     * @param principal the principal name
+     * @param after the path to start after, or null to start from the first
+     * @return the paths, in order; a live view that reflects later changes
+     */
+    NavigableSet<Path> findPaths(final String principal, final Path after) {
+        final NavigableSet<Path> paths = principalPaths.get(principal);
+        if (paths == null) {
+            return emptyNavigableSet();
+        }
+        return after == null ? paths : paths.tailSet(after, false);
+    }
+
+    /**
+     * Record the ACL at a path, replacing any already recorded there.
+     *
+     * @param absPath the path of the ACL-bearing node
+     * @param acl the ACL
+     */
+    synchronized void put(final Path absPath, final EffectiveAcl acl) {
+        Entry entry = root;
+        for (int i = 0; i < absPath.size(); i++) {
+            entry = entry.children.computeIfAbsent(absPath.getSegment(i), s -> new Entry());
+        }
+        unindexPrincipals(absPath, entry.acl);
+        entry.acl = acl;
+        for (final String principal : acl.toMap().keySet()) {
+            principalPaths.computeIfAbsent(principal, p -> new ConcurrentSkipListSet<>()).add(absPath);
+        }
+    }
+
+    private void unindexPrincipals(final Path absPath, final EffectiveAcl acl) {
+        if (acl == null) {
+            return;
+        }
+        for (final String principal : acl.toMap().keySet()) {
+            unindexPrincipal(absPath, principal);
+        }
+    }
+
+    private void unindexPrincipal(final Path absPath, final String principal) {
+        final NavigableSet<Path> paths = principalPaths.get(principal);
+        if (paths != null) {
+            paths.remove(absPath);
+            if (paths.isEmpty()) {
+                principalPaths.remove(principal);
+            }
+        }
+    }
+
+    /**
+     * Forget the ACL at a path, leaving any recorded beneath it.
+     *
+     * @param absPath the path of the formerly ACL-bearing node
+     */
+    synchronized void remove(final Path absPath) {
+        final Entry entry = entry(absPath);
+        if (entry != null) {
+            unindexPrincipals(absPath, entry.acl);
+            entry.acl = null;
+            prune(absPath);
+        }
+    }
+
+    /**
+     * Replace the ACLs at a path and everywhere beneath it. The new subtree is built aside and put in place in a
+     * single step, so a lookup sees either every old ACL or every new one, and never falls through to an ancestor's
+     * ACL in between.
+     *
+     * @param absPath the root of the subtree
+     * @param acls the ACLs now at or beneath the path, by the path of the node carrying them
+     */
+    synchronized void replaceSubtree(final Path absPath, final Map<Path, EffectiveAcl> acls) {
+        final Entry replacement = new Entry();
+        for (final Map.Entry<Path, EffectiveAcl> acl : acls.entrySet()) {
+            final Path path = acl.getKey();
+            Entry entry = replacement;
+            for (int i = absPath.size(); i < path.size(); i++) {
+                entry = entry.children.computeIfAbsent(path.getSegment(i), s -> new Entry());
+            }
+            entry.acl = acl.getValue();
+        }
+        final Map<Path, EffectiveAcl> replaced = findAll(absPath);
+
+        if (absPath.isRoot()) {
+            root = replacement;
+        } else if (replacement.acl == null && replacement.children.isEmpty()) {
+            final Entry parent = entry(absPath.getParent());
+            if (parent != null && parent.children.remove(absPath.getLastSegment()) != null) {
+                prune(absPath.getParent());
+            }
+        } else {
+            Entry parent = root;
+            for (int i = 0; i < absPath.size() - 1; i++) {
+                parent = parent.children.computeIfAbsent(absPath.getSegment(i), s -> new Entry());
+            }
+            parent.children.put(absPath.getLastSegment(), replacement);
+        }
+
+        for (final Map.Entry<Path, EffectiveAcl> acl : acls.entrySet()) {
+            for (final String principal : acl.getValue().toMap().keySet()) {
+                principalPaths.computeIfAbsent(principal, p -> new ConcurrentSkipListSet<>()).add(acl.getKey());
+            }
+        }
+        for (final Map.Entry<Path, EffectiveAcl> acl : replaced.entrySet()) {
+            final EffectiveAcl current = acls.get(acl.getKey());
+            for (final String principal : acl.getValue().toMap().keySet()) {
+                if (current == null || !current.toMap().containsKey(principal)) {
+                    unindexPrincipal(acl.getKey(), principal);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop trailing entries that no longer lead to an ACL.
+     */
+    private void prune(final Path absPath) {
+        for (Path p = absPath; !p.isRoot(); p = p.getParent()) {
+            final Entry parent = entry(p.getParent());
+            final Entry entry = parent.children.get(p.getLastSegment());
+            if (entry.acl != null || !entry.children.isEmpty()) {
+                return;
+            }
+            parent.children.remove(p.getLastSegment());
+        }
+    }
+
+    private Entry entry(final Path absPath) {
+        Entry entry = root;
+        for (int i = 0; i < absPath.size() && entry != null; i++) {
+            entry = entry.children.get(absPath.getSegment(i));
+        }
+        return entry;
+    }
+
+    /**
+     * Convert a JCR path, which may use the session's namespace prefixes, into a path comparable with those handed
+     * to authorization delegates.
+     *
+     * @param jcrPath the JCR path
+     * @param session a session that understands the prefixes used in the path
+     * @return the path
+     * @throws RepositoryException if a prefix is not registered
+     */
+    static Path toPath(final String jcrPath, final Session session) throws RepositoryException {
+        if (jcrPath.indexOf(':') < 0) {
+            return PATHS.create(jcrPath);
+        }
+        final StringBuilder expanded = new StringBuilder(jcrPath.length() * 2);
+        for (final String segment : jcrPath.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            expanded.append('/');
+            final int colon = segment.indexOf(':');
+            if (colon < 0) {
+                expanded.append(segment);
+            } else {
+                expanded.append('{').append(session.getNamespaceURI(segment.substring(0, colon))).append('}')
+                        .append(segment, colon + 1, segment.length());
+            }
+        }
+        return PATHS.create(expanded.length() == 0 ? "/" : expanded.toString());
+    }
+
+    /**
+     * Convert a path into a JCR path using the session's namespace prefixes, the reverse of
+     * {@link #toPath(String, Session)}.
+     *
+     * @param absPath the path
+     * @param session a session with a prefix for every namespace used in the path
+     * @return the JCR path
+     * @throws RepositoryException if a namespace has no prefix
+     */
+    static String toJcrPath(final Path absPath, final Session session) throws RepositoryException {
+        if (absPath.isRoot()) {
+            return "/";
+        }
+        final StringBuilder jcrPath = new StringBuilder();
+        for (final Segment segment : absPath) {
+            jcrPath.append('/');
+            final String uri = segment.getName().getNamespaceUri();
+            if (!uri.isEmpty()) {
+                jcrPath.append(session.getNamespacePrefix(uri)).append(':');
+            }
+            jcrPath.append(segment.getName().getLocalName());
+            if (segment.hasIndex()) {
+                jcrPath.append('[').append(segment.getIndex()).append(']');
+            }
+        }
+        return jcrPath.toString();
+    }
+
+    /**
+     * @param absPath the path of a node carrying its own ACL
+     * @param session a session with a prefix for every namespace used in the path
+     * @return the JCR path of the node's ACL
+     * @throws RepositoryException if a namespace has no prefix
+     */
+    static String toAclJcrPath(final Path absPath, final Session session) throws RepositoryException {
+        return (absPath.isRoot() ? "" : toJcrPath(absPath, session)) + "/" + rbacl.getQualified();
+    }
+
+    private static class Entry {
+
+        private final Map<Segment, Entry> children = new ConcurrentHashMap<>();
+
+        private volatile EffectiveAcl acl;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+import java.util.Objects;
+
+import javax.inject.Inject;
+import javax.jcr.Session;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.fcrepo.http.commons.AbstractResource;
+
+import org.jvnet.hk2.annotations.Optional;
+import org.springframework.context.annotation.Scope;
+
+import com.codahale.metrics.annotation.Timed;
+
+/**
+ * RESTful interface to follow or cancel the background jobs that change a principal's roles
+ *
+ * @author agent
+ */
+@Scope("request")
+@Path("/fcr:accessroles/jobs/{id}")
+public class AccessRolesJobs extends AbstractResource {
+
+    @Inject
+    protected Session session;
+
+    @Inject
+    @Optional
+    private PrincipalChangeJobs principalChangeJobs;
+
+    /**
+     * Report the progress of a job submitted by the calling user.
+     *
+     * @param id the job id
+     * @return JSON status of the job
+     */
+    @GET
+    @Produces(APPLICATION_JSON)
+    @Timed
+    public Response getJob(@PathParam("id") final String id) {
+        try {
+            final PrincipalChangeJobs.Job job = findJob(id);
+            if (job == null) {
+                return Response.status(Status.NOT_FOUND).build();
+            }
+            return Response.ok(job.toMap()).build();
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Cancel a job submitted by the calling user. A running job stops once the batch under way is saved.
+     *
+     * @param id the job id
+     * @return JSON status of the job
+     */
+    @DELETE
+    @Produces(APPLICATION_JSON)
+    @Timed
+    public Response cancelJob(@PathParam("id") final String id) {
+        try {
+            final PrincipalChangeJobs.Job job = findJob(id);
+            if (job == null) {
+                return Response.status(Status.NOT_FOUND).build();
+            }
+            job.cancel();
+            return Response.accepted(job.toMap()).build();
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Jobs change ACLs with the privileges of the user who submitted them, so only that user may see them.
+     */
+    private PrincipalChangeJobs.Job findJob(final String id) {
+        if (principalChangeJobs == null) {
+            return null;
+        }
+        final PrincipalChangeJobs.Job job = principalChangeJobs.get(id);
+        return job == null || !Objects.equals(job.getUserId(), session.getUserID()) ? null : job;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Collections.singletonMap;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+import javax.inject.Inject;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.fcrepo.http.commons.AbstractResource;
+
+import org.jvnet.hk2.annotations.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Scope;
+
+import com.codahale.metrics.annotation.Timed;
+
+/**
+ * RESTful interface to move stored ACLs to the configured storage layout
+ *
+ * @author agent
+ */
+@Scope("request")
+@Path("/fcr:accessroles/migrate")
+public class AccessRolesMigration extends AbstractResource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessRolesMigration.class);
+
+    @Inject
+    protected Session session;
+
+    @Inject
+    @Optional
+    private AccessRolesProvider accessRolesProvider;
+
+    /**
+     * Rewrite every ACL the calling user may change that is stored in a layout other than the configured one. The
+     * work is saved in batches, so it may be repeated to finish after a failure.
+     *
+     * @param batchSize the number of ACLs rewritten between saves
+     * @return JSON count of the ACLs rewritten
+     * @throws RepositoryException if an ACL cannot be read or written
+     */
+    @POST
+    @Produces(APPLICATION_JSON)
+    @Timed
+    public Response migrate(@QueryParam("batch") @DefaultValue("100") final int batchSize)
+            throws RepositoryException {
+        try {
+            if (batchSize < 1) {
+                throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                        .entity("Batch size must be at least 1").build());
+            }
+            if (accessRolesProvider == null) {
+                LOGGER.debug("accessRolesProvider is null");
+                return Response.status(Status.NOT_FOUND).build();
+            }
+            final int migrated = accessRolesProvider.migrateStorage(session, batchSize);
+            LOGGER.debug("Migrated {} ACLs", migrated);
+            return Response.ok(singletonMap("migrated", migrated)).build();
+        } finally {
+            session.logout();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createResource;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.fcrepo.http.commons.AbstractResource;
+import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
+import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
+import org.fcrepo.kernel.api.models.FedoraResource;
+
+import org.jvnet.hk2.annotations.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Scope;
+
+import com.codahale.metrics.annotation.Timed;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * RESTful interface to find, revoke or replace the roles assigned to a principal
+ *
+ * @author agent
+ */
+@Scope("request")
+@Path("/fcr:accessroles/principals/{principal}")
+public class AccessRolesPrincipals extends AbstractResource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessRolesPrincipals.class);
+
+    static final int MAX_LIMIT = 1000;
+
+    @Inject
+    protected Session session;
+
+    @Inject
+    @Optional
+    private AccessRolesProvider accessRolesProvider;
+
+    @Inject
+    @Optional
+    private PrincipalChangeJobs principalChangeJobs;
+
+    protected IdentifierConverter<Resource, FedoraResource> identifierTranslator;
+
+    /**
+     * List the resources the calling user may read whose own ACL, which the user may also read, assigns roles to a
+     * principal, in path order. When there may be more, the response gives the URI of the next page as "next" and in
+     * a Link header. Resources removed while the page is listed are left out, so a page may list fewer than the
+     * limit and still be followed by another.
+     *
+     * @param principal the principal name
+     * @param after the URI of the last resource of the previous page
+     * @param limit the greatest number of resources to list
+     * @return JSON listing of the resource URIs
+     * @throws RepositoryException if the resources cannot be found
+     */
+    @GET
+    @Produces(APPLICATION_JSON)
+    @Timed
+    public Response getResources(@PathParam("principal") final String principal,
+            @QueryParam("after") final String after,
+            @QueryParam("limit") @DefaultValue("100") final int limit) throws RepositoryException {
+        try {
+            if (limit < 1 || limit > MAX_LIMIT) {
+                throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                        .entity("Limit must be between 1 and " + MAX_LIMIT).build());
+            }
+            final Resource afterResource = after == null ? null : createResource(after);
+            if (afterResource != null && !translator().inDomain(afterResource)) {
+                throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                        .entity("After must be the URI of a resource in this repository").build());
+            }
+            if (accessRolesProvider == null) {
+                LOGGER.debug("accessRolesProvider is null");
+                return Response.status(Status.NOT_FOUND).build();
+            }
+            final List<org.modeshape.jcr.value.Path> found = accessRolesProvider.findPathsForPrincipal(principal,
+                    afterResource == null ? null : AccessRolesIndex.toPath(translator().asString(afterResource),
+                            session), limit, session);
+            final List<String> resources = new ArrayList<>(found.size());
+            String last = null;
+            for (final org.modeshape.jcr.value.Path path : found) {
+                final String jcrPath = AccessRolesIndex.toJcrPath(path, session);
+                if (!session.nodeExists(jcrPath)) {
+                    // removed since its ACL was found, but the next page still starts after it
+                    LOGGER.debug("Skipping {}, which no longer exists", jcrPath);
+                    last = translator().toDomain(jcrPath).getURI();
+                    continue;
+                }
+                final FedoraResource resource = nodeService.find(session, jcrPath);
+                last = translator().reverse().convert(resource).getURI();
+                resources.add(last);
+            }
+            final Map<String, Object> page = new LinkedHashMap<>();
+            page.put("principal", principal);
+            page.put("resources", resources);
+            if (found.size() < limit) {
+                return Response.ok(page).build();
+            }
+            final String next = uriInfo.getRequestUriBuilder()
+                    .replaceQueryParam("after", last)
+                    .replaceQueryParam("limit", limit).build().toString();
+            page.put("next", next);
+            return Response.ok(page).header("Link", "<" + next + ">;rel=\"next\"").build();
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Start a background job that revokes every role assigned to a principal in the ACLs the calling user may
+     * change, or that moves those roles to another principal. The job's progress may be followed at the URI given in
+     * the Location header.
+     *
+     * @param principal the principal name
+     * @param replacement the principal to be given the same roles, or absent to revoke them
+     * @param batchSize the number of ACLs changed between saves
+     * @return JSON status of the job
+     */
+    @POST
+    @Produces(APPLICATION_JSON)
+    @Timed
+    public Response changePrincipal(@PathParam("principal") final String principal,
+            @QueryParam("replacement") final String replacement,
+            @QueryParam("batch") @DefaultValue("100") final int batchSize) {
+        try {
+            if (batchSize < 1) {
+                throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                        .entity("Batch size must be at least 1").build());
+            }
+            if (replacement != null && (replacement.trim().isEmpty() || replacement.equals(principal))) {
+                throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                        .entity("Replacement must be another, non-blank principal name").build());
+            }
+            if (accessRolesProvider == null || principalChangeJobs == null) {
+                LOGGER.debug("accessRolesProvider or principalChangeJobs is null");
+                return Response.status(Status.NOT_FOUND).build();
+            }
+            // the job acts for the same user, with the principals they were given, once it starts
+            final PrincipalChangeJobs.Job job = principalChangeJobs.submit(session,
+                    uriInfo.getBaseUriBuilder().clone().path("{path: .*}"), accessRolesProvider, principal,
+                    replacement, batchSize);
+            return Response.accepted(job.toMap()).location(uriInfo.getBaseUriBuilder().path(AccessRolesJobs.class)
+                    .build(job.getId())).build();
+        } finally {
+            session.logout();
+        }
+    }
+
+    protected IdentifierConverter<Resource, FedoraResource> translator() {
+        if (identifierTranslator == null) {
+            identifierTranslator = new HttpResourceConverter(session,
+                    uriInfo.getBaseUriBuilder().clone().path("{path: .*}"));
+        }
+
+        return identifierTranslator;
+    }
+}
@@ -18,17 +18,28 @@
 package org.fcrepo.auth.roles.common;
 
 import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
+import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
 import org.modeshape.jcr.value.Path;
 
+import com.google.common.collect.AbstractIterator;
+
 /**
  * Provides the effective access roles for authorization.
  *
@@ -40,7 +51,8 @@ public interface AccessRolesProvider {
     public static final Map<String, Collection<String>> DEFAULT_ACCESS_ROLES = emptyMap();
 
     /**
-     * Get the roles assigned to this Node. Optionally search up the tree for the effective roles.
+     * Get the roles assigned to this Node. Optionally search up the tree for the effective roles. This is the map
+     * form of {@link #getAcl(Node, boolean)}.
      *
      * @param node the subject Node
      * @param effective if true then search for effective roles
@@ -48,6 +60,19 @@ public interface AccessRolesProvider {
      */
     public Map<String, Collection<String>> getRoles(final Node node, final boolean effective);
 
+    /**
+     * Get the ACL of this Node, as the node's session sees it, unsaved changes included. Optionally search up the
+     * tree for the effective ACL. By default the ACL is built from {@link #getRoles(Node, boolean)}.
+     *
+     * @param node the subject Node
+     * @param effective if true then search for the effective ACL
+     * @return the ACL, or null if the node has none and the effective ACL was not asked for
+     */
+    public default EffectiveAcl getAcl(final Node node, final boolean effective) {
+        final Map<String, Collection<String>> roles = getRoles(node, effective);
+        return roles == null ? null : EffectiveAcl.of(roles);
+    }
+
     /**
      * Assigns the given set of roles to each principal.
      *
@@ -58,6 +83,35 @@ public interface AccessRolesProvider {
     public void postRoles(final Node node, final Map<String, Set<String>> data)
             throws RepositoryException;
 
+    /**
+     * Changes the roles assigned to some principals, leaving the assignments of every other principal untouched. A
+     * node without an ACL of its own is given one, starting from no assignments; a principal left with no roles loses
+     * its assignment. By default the whole ACL is read with {@link #getRoles(Node, boolean)}, patched, and written
+     * back with {@link #postRoles(Node, Map)}.
+     *
+     * @param node the Node to edit
+     * @param additions the roles to assign, by principal
+     * @param removals the roles to unassign, by principal
+     * @throws RepositoryException if repository exception occurred
+     */
+    public default void patchRoles(final Node node, final Map<String, Set<String>> additions,
+            final Map<String, Set<String>> removals) throws RepositoryException {
+        final Map<String, Collection<String>> assigned = getRoles(node, false);
+        final Map<String, Set<String>> patched = new LinkedHashMap<>();
+        if (assigned != null) {
+            assigned.forEach((principal, roles) -> patched.put(principal, new LinkedHashSet<>(roles)));
+        }
+        additions.forEach((principal, roles) ->
+                patched.computeIfAbsent(principal, p -> new LinkedHashSet<>()).addAll(roles));
+        removals.forEach((principal, roles) -> {
+            final Set<String> remaining = patched.get(principal);
+            if (remaining != null && remaining.removeAll(roles) && remaining.isEmpty()) {
+                patched.remove(principal);
+            }
+        });
+        postRoles(node, patched);
+    }
+
     /**
      * Deletes all roles assigned on this node and removes the mixin type.
      *
@@ -67,7 +121,23 @@ public interface AccessRolesProvider {
     public void deleteRoles(final Node node) throws RepositoryException;
 
     /**
-     * Finds effective roles assigned to a path, using first real ancestor node.
+     * Rewrites every ACL in the repository that is stored in a layout other than the one configured, saving the
+     * session after each batch. ACLs grant the same roles throughout, so this may run while the repository is in use,
+     * and may be run again to finish after an interruption. By default there is a single layout, so nothing is
+     * rewritten.
+     *
+     * @param session the session whose view of the repository is migrated
+     * @param batchSize the number of ACLs rewritten between saves
+     * @return the number of ACLs rewritten
+     * @throws RepositoryException if an ACL cannot be read or written
+     */
+    public default int migrateStorage(final Session session, final int batchSize) throws RepositoryException {
+        return 0;
+    }
+
+    /**
+     * Finds effective roles assigned to a path, using first real ancestor node. This is the map form of
+     * {@link #findAclForPath(Path, Session)}.
      *
      * @param absPath the real or potential node path
      * @param session session
@@ -77,4 +147,108 @@ public interface AccessRolesProvider {
     public Map<String, Collection<String>> findRolesForPath(final Path absPath,
             final Session session) throws RepositoryException;
 
+    /**
+     * Finds the effective ACL of a path, using first real ancestor node. By default the ACL is built from
+     * {@link #findRolesForPath(Path, Session)}.
+     *
+     * @param absPath the real or potential node path
+     * @param session session
+     * @return the ACL, which is {@link EffectiveAcl#EMPTY} if no ancestor carries one
+     * @throws RepositoryException if PathNotFoundException can not handle
+     */
+    public default EffectiveAcl findAclForPath(final Path absPath, final Session session)
+            throws RepositoryException {
+        final Map<String, Collection<String>> roles = findRolesForPath(absPath, session);
+        return roles == null ? EffectiveAcl.EMPTY : EffectiveAcl.of(roles);
+    }
+
+    /**
+     * Finds the effective ACL of a path from what the provider holds in memory, without reading the repository. By
+     * default nothing is held, so the repository must always be read.
+     *
+     * @param absPath the real or potential node path
+     * @return the ACL, as {@link #findAclForPath(Path, Session)} would find it, or null if the repository must be
+     *         read to find it
+     */
+    public default EffectiveAcl findIndexedAclForPath(final Path absPath) {
+        return null;
+    }
+
+    /**
+     * Finds the ACL of every node at or beneath a path that carries its own. By default the subtree is walked, asking
+     * {@link #getAcl(Node, boolean)} of every node.
+     *
+     * @param absPath the root of the subtree
+     * @param session session
+     * @return the ACLs, by the path of the node carrying them; empty if the path does not exist
+     * @throws RepositoryException if the ACLs cannot be read
+     */
+    public default Map<Path, EffectiveAcl> findAclsInSubtree(final Path absPath, final Session session)
+            throws RepositoryException {
+        final Map<Path, EffectiveAcl> found = new LinkedHashMap<>();
+        final String jcrPath = AccessRolesIndex.toJcrPath(absPath, session);
+        if (!session.nodeExists(jcrPath)) {
+            return found;
+        }
+        final Deque<Node> pending = new ArrayDeque<>(singleton(session.getNode(jcrPath)));
+        while (!pending.isEmpty()) {
+            final Node node = pending.pop();
+            final EffectiveAcl acl = getAcl(node, false);
+            if (acl != null) {
+                found.put(AccessRolesIndex.toPath(node.getPath(), session), acl);
+            }
+            for (final NodeIterator children = node.getNodes(); children.hasNext();) {
+                pending.push(children.nextNode());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds every node in the repository that carries its own ACL. The nodes are found as the iterator advances, so
+     * none need be held once visited. By default the whole tree is walked, asking {@link #getAcl(Node, boolean)} of
+     * every node; providers that can should search by query instead.
+     *
+     * @param session the session whose view of the repository is searched
+     * @return the nodes
+     * @throws RepositoryException if the search cannot be made
+     */
+    public default Iterator<Node> findAssignableNodes(final Session session) throws RepositoryException {
+        final Deque<Node> pending = new ArrayDeque<>(singleton(session.getRootNode()));
+        return new AbstractIterator<Node>() {
+
+            @Override
+            protected Node computeNext() {
+                try {
+                    while (!pending.isEmpty()) {
+                        final Node node = pending.pop();
+                        for (final NodeIterator children = node.getNodes(); children.hasNext();) {
+                            pending.push(children.nextNode());
+                        }
+                        if (getAcl(node, false) != null) {
+                            return node;
+                        }
+                    }
+                    return endOfData();
+                } catch (final RepositoryException e) {
+                    throw new RepositoryRuntimeException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Finds the nodes whose own ACL assigns roles to a principal, one page at a time. Only nodes whose ACL the session
+     * may read are included. Implementations should find the nodes without reading every ACL in the repository.
+     *
+     * @param principal the principal name
+     * @param after the path of the last node of the previous page, or null for the first page
+     * @param limit the greatest number of paths to return
+     * @param session the session whose view of the repository is searched
+     * @return the paths, in path order
+     * @throws RepositoryException if the search cannot be made
+     */
+    public List<Path> findPathsForPrincipal(final String principal, final Path after, final int limit,
+            final Session session) throws RepositoryException;
+
 }
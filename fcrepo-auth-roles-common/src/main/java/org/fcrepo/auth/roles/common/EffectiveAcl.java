@@ -0,0 +1,378 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * The roles an ACL assigns to each principal, in a compact immutable form.
+ *
+ * <p>Every role name is given a bit the first time it is seen, and an ACL maps each principal to the set of bits of
+ * its roles, so that the roles of a user are found by {@link #resolve(Collection)} with a hash lookup per principal
+ * and no allocation. Only the first {@value #ROLE_BITS} role names get bits of their own, so delegates should claim
+ * bits for the roles they recognize, with {@link #roleBit(String)}, before ACLs are read. Any later names share
+ * {@link #OVERFLOW}, are not remembered here, and are kept by name by the ACLs that assign them. Principal names are
+ * interned, so the many ACLs that name the same principals share one copy of each name.</p>
+ *
+ * @author agent
+ */
+public final class EffectiveAcl {
+
+    /**
+     * The number of role names that can be given a bit of their own.
+     */
+    public static final int ROLE_BITS = 63;
+
+    /**
+     * The bit of every role name beyond the first {@value #ROLE_BITS}.
+     */
+    public static final long OVERFLOW = 1L << ROLE_BITS;
+
+    private static final ConcurrentMap<String, Long> ROLE_IDS = new ConcurrentHashMap<>();
+
+    private static final AtomicReferenceArray<String> ROLE_NAMES = new AtomicReferenceArray<>(ROLE_BITS);
+
+    private static volatile boolean roleBitsTaken;
+
+    private static final Interner<String> PRINCIPAL_NAMES = Interners.newWeakInterner();
+
+    /**
+     * An ACL that assigns no roles.
+     */
+    public static final EffectiveAcl EMPTY = new Builder().build();
+
+    /*
+     * An open-addressed hash table of principal names and the bits of their roles, with at least one empty slot.
+     */
+    private final String[] principals;
+
+    private final long[] roles;
+
+    private final int size;
+
+    /*
+     * The names of the roles of each principal that are not known by their bit alone, or null if there are none.
+     */
+    private final Map<String, Set<String>> overflowRoles;
+
+    /*
+     * The version stamp, computed on first use; a race only computes it twice.
+     */
+    private String version;
+
+    private EffectiveAcl(final String[] principals, final long[] roles, final int size,
+            final Map<String, Set<String>> overflowRoles) {
+        this.principals = principals;
+        this.roles = roles;
+        this.size = size;
+        this.overflowRoles = overflowRoles;
+    }
+
+    /**
+     * @param assignments the roles assigned to each principal
+     * @return the ACL
+     */
+    public static EffectiveAcl of(final Map<String, ? extends Collection<String>> assignments) {
+        if (assignments.isEmpty()) {
+            return EMPTY;
+        }
+        final Builder builder = new Builder();
+        for (final Map.Entry<String, ? extends Collection<String>> entry : assignments.entrySet()) {
+            builder.principal(entry.getKey());
+            for (final String role : entry.getValue()) {
+                builder.assign(entry.getKey(), role);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return a builder for a new ACL
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get the bit of a role name, giving it one if it has none yet.
+     *
+     * @param role the role name
+     * @return the bit, which is {@link #OVERFLOW} if all of the others are taken
+     */
+    public static long roleBit(final String role) {
+        final Long bit = ROLE_IDS.get(role);
+        if (bit != null) {
+            return bit;
+        }
+        if (roleBitsTaken) {
+            return OVERFLOW;
+        }
+        // no mapping is kept for a role without a bit of its own, so that the registry never outgrows the bits
+        final Long given = ROLE_IDS.computeIfAbsent(role, EffectiveAcl::nextRoleBit);
+        return given == null ? OVERFLOW : given;
+    }
+
+    private static synchronized Long nextRoleBit(final String role) {
+        for (int i = 0; i < ROLE_BITS; i++) {
+            if (ROLE_NAMES.get(i) == null) {
+                ROLE_NAMES.set(i, role);
+                return 1L << i;
+            }
+        }
+        roleBitsTaken = true;
+        return null;
+    }
+
+    /**
+     * @return the number of role names with a bit of their own, which is never more than {@value #ROLE_BITS}
+     */
+    static int knownRoles() {
+        return ROLE_IDS.size();
+    }
+
+    /**
+     * @param mask role bits
+     * @return the names of the roles with those bits, not counting {@link #OVERFLOW}
+     */
+    public static Set<String> roleNames(final long mask) {
+        final Set<String> names = new LinkedHashSet<>();
+        for (long bits = mask & ~OVERFLOW; bits != 0; bits &= bits - 1) {
+            names.add(ROLE_NAMES.get(Long.numberOfTrailingZeros(bits)));
+        }
+        return names;
+    }
+
+    /**
+     * Find the roles this ACL assigns to any of a user's principals.
+     *
+     * @param userPrincipals the user's principals
+     * @return the bits of the roles, including {@link #OVERFLOW} if any of them is only known by name
+     */
+    public long resolve(final Collection<Principal> userPrincipals) {
+        long mask = 0;
+        for (final Principal principal : userPrincipals) {
+            mask |= rolesOf(principal.getName());
+        }
+        return mask;
+    }
+
+    /**
+     * Find the roles this ACL assigns to any of a user's principals, by name.
+     *
+     * @param userPrincipals the user's principals
+     * @return the role names
+     */
+    public Set<String> resolveRoles(final Collection<Principal> userPrincipals) {
+        final long mask = resolve(userPrincipals);
+        final Set<String> names = roleNames(mask);
+        if ((mask & OVERFLOW) != 0) {
+            for (final Principal principal : userPrincipals) {
+                final Set<String> extra = overflowRoles.get(principal.getName());
+                if (extra != null) {
+                    names.addAll(extra);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param principal a principal name
+     * @return the bits of the roles assigned to the principal
+     */
+    public long rolesOf(final String principal) {
+        if (principal == null) {
+            return 0;
+        }
+        final int last = principals.length - 1;
+        for (int i = spread(principal.hashCode()) & last; principals[i] != null; i = (i + 1) & last) {
+            if (principals[i].equals(principal)) {
+                return roles[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of principals named
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no principal is named
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the roles assigned to each principal, as the original map-based API presents them
+     */
+    public Map<String, Collection<String>> toMap() {
+        if (size == 0) {
+            return AccessRolesProvider.DEFAULT_ACCESS_ROLES;
+        }
+        final Map<String, Collection<String>> map = new LinkedHashMap<>();
+        for (int i = 0; i < principals.length; i++) {
+            if (principals[i] != null) {
+                final Set<String> names = roleNames(roles[i]);
+                if (overflowRoles != null && overflowRoles.containsKey(principals[i])) {
+                    names.addAll(overflowRoles.get(principals[i]));
+                }
+                map.put(principals[i], unmodifiableList(new ArrayList<>(names)));
+            }
+        }
+        return unmodifiableMap(map);
+    }
+
+    /**
+     * A stamp of the content of the ACL: the SHA-256 digest of its principals, each followed by its roles, all in
+     * sorted order. Equal ACLs have equal stamps and, in practice, different ACLs never do, so the stamp may serve as
+     * a strong entity tag. It depends only on the names of principals and roles, so it is the same in every JVM.
+     *
+     * @return the stamp, as 64 hexadecimal digits
+     */
+    public String version() {
+        String v = version;
+        if (v == null) {
+            final Hasher hasher = Hashing.sha256().newHasher();
+            final Map<String, Collection<String>> assignments = size == 0 ? emptyMap() : new TreeMap<>(toMap());
+            hasher.putInt(assignments.size());
+            for (final Map.Entry<String, Collection<String>> entry : assignments.entrySet()) {
+                final Set<String> names = new TreeSet<>(entry.getValue());
+                // every name is preceded by its length, so that no two ACLs serialize alike
+                putName(hasher, entry.getKey());
+                hasher.putInt(names.size());
+                for (final String role : names) {
+                    putName(hasher, role);
+                }
+            }
+            v = hasher.hash().toString();
+            version = v;
+        }
+        return v;
+    }
+
+    private static void putName(final Hasher hasher, final String name) {
+        hasher.putInt(name.length()).putString(name, UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+    private static int spread(final int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Gathers the assignments of a new ACL.
+     */
+    public static final class Builder {
+
+        private final Map<String, Long> roles = new LinkedHashMap<>();
+
+        private Map<String, Set<String>> overflowRoles;
+
+        private Builder() {
+        }
+
+        /**
+         * Name a principal, even if it is assigned no roles.
+         *
+         * @param principal the principal name
+         * @return this builder
+         */
+        public Builder principal(final String principal) {
+            roles.putIfAbsent(principal, 0L);
+            return this;
+        }
+
+        /**
+         * Assign a role to a principal.
+         *
+         * @param principal the principal name
+         * @param role the role name
+         * @return this builder
+         */
+        public Builder assign(final String principal, final String role) {
+            final long bit = roleBit(role);
+            roles.merge(principal, bit, (a, b) -> a | b);
+            if (bit == OVERFLOW) {
+                if (overflowRoles == null) {
+                    overflowRoles = new LinkedHashMap<>();
+                }
+                overflowRoles.computeIfAbsent(principal, p -> new HashSet<>()).add(role);
+            }
+            return this;
+        }
+
+        /**
+         * @return the ACL
+         */
+        public EffectiveAcl build() {
+            final int capacity = Integer.highestOneBit(Math.max(1, roles.size()) * 2) << 1;
+            final String[] principals = new String[capacity];
+            final long[] masks = new long[capacity];
+            for (final Map.Entry<String, Long> entry : roles.entrySet()) {
+                int i = spread(entry.getKey().hashCode()) & (capacity - 1);
+                while (principals[i] != null) {
+                    i = (i + 1) & (capacity - 1);
+                }
+                principals[i] = PRINCIPAL_NAMES.intern(entry.getKey());
+                masks[i] = entry.getValue();
+            }
+            Map<String, Set<String>> overflow = null;
+            if (overflowRoles != null) {
+                overflow = new LinkedHashMap<>();
+                for (final Map.Entry<String, Set<String>> entry : overflowRoles.entrySet()) {
+                    overflow.put(entry.getKey(), unmodifiableSet(new HashSet<>(entry.getValue())));
+                }
+                overflow = unmodifiableMap(overflow);
+            }
+            return new EffectiveAcl(principals, masks, roles.size(), overflow);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.slf4j.Logger;
+
+/**
+ * A bounded pool of internal sessions for reading ACLs. A session is refreshed as it is borrowed, discarding
+ * anything it had cached, so it sees the repository as a new session would. When the pool is empty a new session
+ * is opened; when it is full a returned session is logged out.
+ *
+ * @author agent
+ */
+class InternalSessionPool {
+
+    private static final Logger LOGGER = getLogger(InternalSessionPool.class);
+
+    private final SessionFactory sessionFactory;
+
+    private final BlockingQueue<Session> idle;
+
+    private volatile boolean closed;
+
+    /**
+     * @param sessionFactory the source of internal sessions
+     * @param capacity the most idle sessions to keep
+     */
+    InternalSessionPool(final SessionFactory sessionFactory, final int capacity) {
+        this.sessionFactory = sessionFactory;
+        this.idle = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Borrow a session, which must be given back with {@link #release(Session)} once it is no longer used.
+     *
+     * @return a live, refreshed internal session
+     */
+    Session borrow() {
+        for (Session session = idle.poll(); session != null; session = idle.poll()) {
+            if (session.isLive()) {
+                try {
+                    session.refresh(false);
+                    return session;
+                } catch (final RepositoryException e) {
+                    LOGGER.debug("Discarding internal session that could not be refreshed", e);
+                }
+            }
+            session.logout();
+        }
+        return sessionFactory.getInternalSession();
+    }
+
+    /**
+     * Give back a borrowed session.
+     *
+     * @param session the session, which may be null
+     */
+    void release(final Session session) {
+        if (session != null && (closed || !session.isLive() || !idle.offer(session))) {
+            session.logout();
+        }
+    }
+
+    /**
+     * Log out every idle session. Sessions borrowed at the time are logged out as they are given back.
+     */
+    void close() {
+        closed = true;
+        for (Session session = idle.poll(); session != null; session = idle.poll()) {
+            session.logout();
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.core.UriBuilder;
+
+import org.fcrepo.auth.common.FedoraAuthorizationDelegate;
+import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
+import org.fcrepo.kernel.api.services.NodeService;
+import org.modeshape.jcr.value.Path;
+import org.slf4j.Logger;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs background jobs that revoke every role assignment of a principal, or move them to another principal, across
+ * the whole repository. Jobs run one at a time, in the order submitted, each saving its changes in batches and
+ * recording its progress as it goes. Finished jobs are remembered for a day.
+ *
+ * @author agent
+ */
+@Component
+public class PrincipalChangeJobs {
+
+    private static final Logger LOGGER = getLogger(PrincipalChangeJobs.class);
+
+    private static final Duration RETENTION = Duration.ofDays(1);
+
+    @Inject
+    private SessionFactory sessionFactory;
+
+    @Inject
+    private NodeService nodeService;
+
+    @Inject
+    private FedoraAuthorizationDelegate authorizationDelegate;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "fcrepo-auth-roles-principal-changes");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Queue a job. The job runs in a session of its own that acts for the user who asked for it, with the principals
+     * resolved for them when they authenticated, so the roles changed are those that user may change.
+     *
+     * @param userSession the session of the user who asked for the job
+     * @param resources the template of resource URIs, with the resource path as its only parameter
+     * @param accessRolesProvider the provider that finds and changes the ACLs
+     * @param principal the principal whose assignments are changed
+     * @param replacement the principal to be given the same roles, or null to revoke them
+     * @param batchSize the number of ACLs changed between saves
+     * @return the job
+     */
+    public Job submit(final Session userSession, final UriBuilder resources,
+            final AccessRolesProvider accessRolesProvider, final String principal, final String replacement,
+            final int batchSize) {
+        final Instant expired = Instant.now().minus(RETENTION);
+        jobs.values().removeIf(job -> job.finished != null && job.finished.isBefore(expired));
+        // the user's session ends with the request, so only what it was granted is kept for the job
+        final String userId = userSession.getUserID();
+        final Map<String, Object> principals = PrincipalSession.principalsOf(userSession);
+        final Job job = new Job(() -> login(userId, principals), userId,
+                (session, jcrPath) -> uri(session, resources, jcrPath), accessRolesProvider, principal,
+                replacement, batchSize);
+        jobs.put(job.id, job);
+        executor.execute(job::run);
+        LOGGER.debug("Queued job {} to change the roles of {} to {}", job.id, principal, replacement);
+        return job;
+    }
+
+    /**
+     * @param userId the id of the user the job acts for
+     * @param principals the principals resolved for the user, or null if the user's access is unrestricted
+     * @return a session with the user's permissions
+     */
+    private Session login(final String userId, final Map<String, Object> principals) {
+        final Session session = sessionFactory.getInternalSession();
+        return principals == null ? session : PrincipalSession.of(session, userId, principals, authorizationDelegate);
+    }
+
+    private String uri(final Session session, final UriBuilder resources, final String jcrPath) {
+        try {
+            return new HttpResourceConverter(session, resources.clone()).reverse()
+                    .convert(nodeService.find(session, jcrPath)).getURI();
+        } catch (final RepositoryRuntimeException e) {
+            LOGGER.debug("Cannot translate {}, which may no longer exist", jcrPath, e);
+            return resources.clone().build(new Object[] {jcrPath.substring(1)}, false).toString();
+        }
+    }
+
+    /**
+     * @param id the job id
+     * @return the job, or null if there is no such job
+     */
+    public Job get(final String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Stop running jobs and discard any queued.
+     */
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A revocation or replacement of one principal's roles.
+     */
+    public static class Job {
+
+        /**
+         * The stages of a job.
+         */
+        public enum State {
+            QUEUED, RUNNING, COMPLETED, CANCELLED, FAILED
+        }
+
+        /**
+         * The most ACLs that could not be changed that are listed individually.
+         */
+        static final int MAX_REPORTED = 100;
+
+        private static final String CHANGE_ACTIONS = "add_node,set_property,remove";
+
+        private final String id = UUID.randomUUID().toString();
+
+        private final Supplier<Session> login;
+
+        private final String userId;
+
+        private final BiFunction<Session, String, String> uris;
+
+        private final AccessRolesProvider accessRolesProvider;
+
+        private final String principal;
+
+        private final String replacement;
+
+        private final int batchSize;
+
+        private final Instant submitted = Instant.now();
+
+        private final List<Map<String, String>> problems = new CopyOnWriteArrayList<>();
+
+        private volatile State state = State.QUEUED;
+
+        private volatile boolean cancelled;
+
+        private volatile int changed;
+
+        private volatile int denied;
+
+        private volatile int failed;
+
+        private volatile String error;
+
+        private volatile Instant finished;
+
+        /**
+         * @param login opens the session the changes are made in, as the submitting user, when the job runs
+         * @param userId the id of the submitting user
+         * @param uris translates the path of a node in a session to the URI of its resource
+         * @param accessRolesProvider the provider that finds and changes the ACLs
+         * @param principal the principal whose assignments are changed
+         * @param replacement the principal to be given the same roles, or null to revoke them
+         * @param batchSize the number of ACLs changed between saves
+         */
+        Job(final Supplier<Session> login, final String userId, final BiFunction<Session, String, String> uris,
+                final AccessRolesProvider accessRolesProvider, final String principal, final String replacement,
+                final int batchSize) {
+            this.login = login;
+            this.userId = userId;
+            this.uris = uris;
+            this.accessRolesProvider = accessRolesProvider;
+            this.principal = principal;
+            this.replacement = replacement;
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * @return the job id
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the id of the user who submitted the job
+         */
+        public String getUserId() {
+            return userId;
+        }
+
+        /**
+         * @return the stage the job has reached
+         */
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Ask the job to stop once the batch under way is saved.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return the job's description and progress, for reporting
+         */
+        public Map<String, Object> toMap() {
+            final Map<String, Object> status = new LinkedHashMap<>();
+            status.put("id", id);
+            status.put("principal", principal);
+            if (replacement != null) {
+                status.put("replacement", replacement);
+            }
+            status.put("state", state.name().toLowerCase());
+            status.put("changed", changed);
+            status.put("denied", denied);
+            status.put("failed", failed);
+            if (!problems.isEmpty()) {
+                status.put("problems", new ArrayList<>(problems));
+            }
+            status.put("submitted", submitted.toString());
+            if (finished != null) {
+                status.put("finished", finished.toString());
+            }
+            if (error != null) {
+                status.put("error", error);
+            }
+            return status;
+        }
+
+        void run() {
+            Session session = null;
+            try {
+                state = State.RUNNING;
+                if (!cancelled) {
+                    session = login.get();
+                }
+                Path after = null;
+                while (!cancelled) {
+                    final List<Path> paths =
+                            accessRolesProvider.findPathsForPrincipal(principal, after, batchSize, session);
+                    if (paths.isEmpty()) {
+                        break;
+                    }
+                    change(session, paths);
+                    // ACLs that could not be changed are passed over, not retried
+                    after = paths.get(paths.size() - 1);
+                }
+                state = cancelled ? State.CANCELLED : State.COMPLETED;
+            } catch (final RepositoryException | RuntimeException e) {
+                LOGGER.error("Job {} to change the roles of {} failed", id, principal, e);
+                error = e.getMessage();
+                state = State.FAILED;
+            } finally {
+                finished = Instant.now();
+                if (session != null) {
+                    session.logout();
+                }
+            }
+            LOGGER.info("Job {} {}: changed the roles of {} on {} ACLs, {} denied, {} failed", id, state, principal,
+                    changed, denied, failed);
+        }
+
+        /**
+         * Change a batch of ACLs, saving them together. Should the save fail, each is changed and saved alone, so
+         * that only those that cannot be changed are passed over.
+         */
+        private void change(final Session session, final List<Path> paths) throws RepositoryException {
+            final List<Node> nodes = new ArrayList<>(paths.size());
+            for (final Path path : paths) {
+                final String jcrPath = AccessRolesIndex.toJcrPath(path, session);
+                if (session.hasPermission(AccessRolesIndex.toAclJcrPath(path, session), CHANGE_ACTIONS)) {
+                    nodes.add(session.getNode(jcrPath));
+                } else {
+                    denied++;
+                    report(session, jcrPath, "denied");
+                }
+            }
+            if (nodes.isEmpty()) {
+                return;
+            }
+            try {
+                int count = 0;
+                for (final Node node : nodes) {
+                    if (patch(node)) {
+                        count++;
+                    }
+                }
+                session.save();
+                changed += count;
+            } catch (final RepositoryException | RepositoryRuntimeException e) {
+                LOGGER.debug("Job {} could not save a batch of {} ACLs, changing them one at a time", id,
+                        nodes.size(), e);
+                session.refresh(false);
+                for (final Node node : nodes) {
+                    change(session, node);
+                }
+            }
+        }
+
+        private void change(final Session session, final Node node) throws RepositoryException {
+            try {
+                if (patch(node)) {
+                    session.save();
+                    changed++;
+                }
+            } catch (final RepositoryException | RepositoryRuntimeException e) {
+                LOGGER.warn("Job {} could not change the ACL of {} at {}", id, principal, node.getPath(), e);
+                session.refresh(false);
+                failed++;
+                report(session, node.getPath(), "failed");
+            }
+        }
+
+        /**
+         * @return whether the ACL of the node assigned the principal any roles, which have now been changed
+         */
+        private boolean patch(final Node node) throws RepositoryException {
+            final EffectiveAcl acl = accessRolesProvider.getAcl(node, false);
+            final Collection<String> roles = acl == null ? null : acl.toMap().get(principal);
+            if (roles == null) {
+                // already changed since it was found
+                return false;
+            }
+            final Set<String> moved = new LinkedHashSet<>(roles);
+            final Map<String, Set<String>> additions =
+                    replacement == null ? emptyMap() : singletonMap(replacement, moved);
+            accessRolesProvider.patchRoles(node, additions, singletonMap(principal, moved));
+            return true;
+        }
+
+        private void report(final Session session, final String jcrPath, final String problem) {
+            if (problems.size() < MAX_REPORTED) {
+                final Map<String, String> report = new LinkedHashMap<>();
+                report.put("resource", uris.apply(session, jcrPath));
+                report.put("problem", problem);
+                problems.add(report);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_ALL_PRINCIPALS;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_USER_PRINCIPAL;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.AccessControlException;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.common.FedoraAuthorizationDelegate;
+
+/**
+ * A session that acts for a user once the request that authenticated them has ended. The repository is reached
+ * through an internal session, while the user's id, the principals resolved for them when they authenticated, and
+ * the permissions those principals are granted by the authorization delegate are answered as the user's own
+ * session answered them. Nothing else of the request, such as its credentials, is kept.
+ *
+ * @author agent
+ */
+final class PrincipalSession implements InvocationHandler {
+
+    private final Session session;
+
+    private final String userId;
+
+    private final Map<String, Object> principals;
+
+    private final FedoraAuthorizationDelegate authorizationDelegate;
+
+    private PrincipalSession(final Session session, final String userId, final Map<String, Object> principals,
+            final FedoraAuthorizationDelegate authorizationDelegate) {
+        this.session = session;
+        this.userId = userId;
+        this.principals = principals;
+        this.authorizationDelegate = authorizationDelegate;
+    }
+
+    /**
+     * @param userSession a session of the user, authenticated by the servlet container provider
+     * @return the principals resolved for the user, as session attributes, or null if the session was not given any
+     *         because the user's access is unrestricted
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> principalsOf(final Session userSession) {
+        final Object all = userSession.getAttribute(FEDORA_ALL_PRINCIPALS);
+        if (!(all instanceof Set<?>)) {
+            return null;
+        }
+        final Map<String, Object> principals = new HashMap<>();
+        principals.put(FEDORA_ALL_PRINCIPALS, Collections.unmodifiableSet(new HashSet<>((Set<Principal>) all)));
+        final Object user = userSession.getAttribute(FEDORA_USER_PRINCIPAL);
+        if (user != null) {
+            principals.put(FEDORA_USER_PRINCIPAL, user);
+        }
+        return principals;
+    }
+
+    /**
+     * @param session an internal session, which the returned session logs out with it
+     * @param userId the id of the user
+     * @param principals the principals resolved for the user, from {@link #principalsOf(Session)}
+     * @param authorizationDelegate the delegate that decides what the principals may do
+     * @return a session that reaches the repository through the internal session, with the user's permissions
+     */
+    static Session of(final Session session, final String userId, final Map<String, Object> principals,
+            final FedoraAuthorizationDelegate authorizationDelegate) {
+        return (Session) Proxy.newProxyInstance(PrincipalSession.class.getClassLoader(),
+                new Class<?>[] {Session.class}, new PrincipalSession(session, userId, principals,
+                        authorizationDelegate));
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+        case "getUserID":
+            return userId;
+        case "getAttribute":
+            return principals.get(args[0]);
+        case "getAttributeNames":
+            return principals.keySet().toArray(new String[principals.size()]);
+        case "hasPermission":
+            return hasPermission((Session) proxy, (String) args[0], (String) args[1]);
+        case "checkPermission":
+            if (!hasPermission((Session) proxy, (String) args[0], (String) args[1])) {
+                throw new AccessControlException("Permission denied: " + args[1] + " on " + args[0]);
+            }
+            return null;
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "equals":
+            return proxy == args[0];
+        case "toString":
+            return "Session of " + userId;
+        default:
+            try {
+                return method.invoke(session, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private boolean hasPermission(final Session proxy, final String absPath, final String actions)
+            throws RepositoryException {
+        return authorizationDelegate.hasPermission(proxy, AccessRolesIndex.toPath(absPath, session),
+                actions.split(","));
+    }
+}
@@ -20,9 +20,18 @@ package org.fcrepo.auth.roles.common;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeSet;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -30,18 +39,37 @@ import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.observation.ObservationManager;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.RowIterator;
 
 import org.fcrepo.auth.roles.common.Constants.JcrName;
+import org.fcrepo.http.commons.session.SessionFactory;
 import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
 import org.modeshape.jcr.value.Path;
 import org.slf4j.Logger;
 import org.springframework.stereotype.Component;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.AbstractIterator;
+
 import static com.google.common.collect.Iterables.toArray;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+import static javax.jcr.observation.Event.NODE_ADDED;
+import static javax.jcr.observation.Event.NODE_MOVED;
+import static javax.jcr.observation.Event.NODE_REMOVED;
+import static javax.jcr.observation.Event.PROPERTY_ADDED;
+import static javax.jcr.observation.Event.PROPERTY_CHANGED;
+import static javax.jcr.observation.Event.PROPERTY_REMOVED;
+import static javax.jcr.query.Query.JCR_SQL2;
 import static org.fcrepo.auth.roles.common.Constants.registerPrefixes;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.Assignment;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.Rbacl;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.assignment;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.grant;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.principal;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.rbacl;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.rbaclAssignable;
@@ -59,45 +87,267 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
 
     private static final Logger LOGGER = getLogger(RbAclAccessRolesProvider.class);
 
+    private static final int ACL_EVENTS = NODE_ADDED | NODE_REMOVED | NODE_MOVED |
+            PROPERTY_ADDED | PROPERTY_CHANGED | PROPERTY_REMOVED;
+
+    /**
+     * How ACLs are stored: "nodes" (the default) for a same-name sibling node per principal, or "property" for a
+     * single multi-valued property of the ACL node holding every principal and its roles.
+     */
+    public static final String STORAGE_LAYOUT = "fcrepo.auth.roles.storage";
+
+    /**
+     * Separates the principal and roles within each value of the grant property.
+     */
+    private static final char GRANT_SEPARATOR = '\u001f';
+
+    private static final String ASSIGNABLE_NODES = "SELECT [jcr:path] FROM [" + rbaclAssignable.getQualified() +
+            "] AS n WHERE ISDESCENDANTNODE(n, '%s')";
+
+    private static final String PRINCIPAL_ASSIGNMENTS = "SELECT [jcr:path] FROM [" + Assignment.getQualified() +
+            "] AS a WHERE a.[" + principal.getQualified() + "] = $principal";
+
+    private static final String PRINCIPAL_GRANTS = "SELECT [jcr:path] FROM [" + Rbacl.getQualified() +
+            "] AS r WHERE r.[" + grant.getQualified() + "] = $principal OR r.[" + grant.getQualified() +
+            "] LIKE $grants";
+
+    @Inject
+    private SessionFactory sessionFactory = null;
+
+    // the access control node types must be registered before the index can be built
+    @Inject
+    private AccessRolesTypes accessRolesTypes = null;
+
+    /**
+     * Whether ACLs are written to a single property rather than a node per principal. Both are always read.
+     */
+    private boolean compactStorage = "property".equalsIgnoreCase(System.getProperty(STORAGE_LAYOUT));
+
+    private Session observationSession;
+
+    private AccessRolesChangeListener changeListener;
+
+    /**
+     * Every ACL in the repository, only present while the change listener is registered so that it can never fall
+     * behind the repository. Only the listener changes it, from what has been persisted: changes made through this
+     * provider are unsaved until the caller saves them, may be discarded or rolled back, and are visible to no
+     * other session until then. It therefore answers only the lookups by path made to authorize requests; the ACL of
+     * a node is read from the node. Access to it and to the observation session is serialized on the index.
+     */
+    private volatile AccessRolesIndex index;
+
+    /**
+     * Whether the index has been fully built and can answer lookups on its own.
+     */
+    private volatile boolean indexed;
+
+    /**
+     * Default constructor, for injection.
+     */
+    public RbAclAccessRolesProvider() {
+        super();
+    }
+
+    /**
+     * Create a provider that indexes the ACLs in a repository once {@link #init()} is called.
+     *
+     * @param sessionFactory source of internal sessions for the repository
+     */
+    @VisibleForTesting
+    public RbAclAccessRolesProvider(final SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * Register a listener for ACL changes and build the index of ACLs.
+     *
+     * @throws RepositoryException if the listener cannot be registered or the index cannot be built
+     */
+    @PostConstruct
+    public void init() throws RepositoryException {
+        if (sessionFactory == null) {
+            LOGGER.debug("No session factory available, effective roles will be read from the repository");
+            return;
+        }
+        final AccessRolesIndex acls = new AccessRolesIndex();
+        index = acls;
+        observationSession = sessionFactory.getInternalSession();
+        registerPrefixes(observationSession);
+        changeListener = new AccessRolesChangeListener(this);
+        final ObservationManager observationManager = observationSession.getWorkspace().getObservationManager();
+        observationManager.addEventListener(changeListener, ACL_EVENTS, "/", true, null, null, false);
+
+        // changes that arrive while we build must wait, so they are applied on top of what we read
+        synchronized (acls) {
+            final Session session = sessionFactory.getInternalSession();
+            try {
+                registerPrefixes(session);
+                index(session, "/", acls);
+            } finally {
+                session.logout();
+            }
+        }
+        indexed = true;
+    }
+
+    /**
+     * Stop listening for ACL changes and discard the index.
+     *
+     * @throws RepositoryException if the listener cannot be removed
+     */
+    @PreDestroy
+    public void destroy() throws RepositoryException {
+        if (observationSession == null) {
+            return;
+        }
+        indexed = false;
+        index = null;
+        try {
+            observationSession.getWorkspace().getObservationManager().removeEventListener(changeListener);
+        } finally {
+            observationSession.logout();
+            observationSession = null;
+        }
+    }
+
+    /**
+     * Re-read the ACL of a single node into the index.
+     *
+     * @param jcrPath the path of the node whose ACL may have changed
+     * @throws RepositoryException if the ACL cannot be read
+     */
+    void reindex(final String jcrPath) throws RepositoryException {
+        final AccessRolesIndex acls = index;
+        if (acls == null) {
+            return;
+        }
+        synchronized (acls) {
+            observationSession.refresh(false);
+            if (observationSession.nodeExists(jcrPath)) {
+                index(observationSession.getNode(jcrPath), acls);
+            } else {
+                acls.remove(AccessRolesIndex.toPath(jcrPath, observationSession));
+            }
+        }
+    }
+
+    /**
+     * Re-read every ACL at or beneath a path into the index. The ACLs are all read before any is replaced, so until
+     * then lookups are answered from the ACLs indexed before.
+     *
+     * @param jcrPath the root of the subtree whose ACLs may have changed
+     * @throws RepositoryException if the ACLs cannot be read
+     */
+    void reindexSubtree(final String jcrPath) throws RepositoryException {
+        final AccessRolesIndex acls = index;
+        if (acls == null) {
+            return;
+        }
+        synchronized (acls) {
+            observationSession.refresh(false);
+            final Map<Path, EffectiveAcl> found = new LinkedHashMap<>();
+            if (observationSession.nodeExists(jcrPath)) {
+                collectAssignments(observationSession.getNode(jcrPath), found);
+                for (final NodeIterator ni = assignableDescendants(observationSession, jcrPath); ni.hasNext();) {
+                    collectAssignments(ni.nextNode(), found);
+                }
+            }
+            acls.replaceSubtree(AccessRolesIndex.toPath(jcrPath, observationSession), found);
+            LOGGER.debug("Reindexed {} ACLs beneath {}", found.size(), jcrPath);
+        }
+    }
+
+    private void index(final Session session, final String jcrPath, final AccessRolesIndex acls)
+            throws RepositoryException {
+        if (!session.nodeExists(jcrPath)) {
+            return;
+        }
+        index(session.getNode(jcrPath), acls);
+        int count = 0;
+        for (final NodeIterator ni = assignableDescendants(session, jcrPath); ni.hasNext(); count++) {
+            index(ni.nextNode(), acls);
+        }
+        LOGGER.debug("Indexed {} ACLs beneath {}", count, jcrPath);
+    }
+
+    private static NodeIterator assignableDescendants(final Session session, final String jcrPath)
+            throws RepositoryException {
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        final Query query = queryManager.createQuery(String.format(ASSIGNABLE_NODES, jcrPath.replace("'", "''")),
+                JCR_SQL2);
+        return query.execute().getNodes();
+    }
+
+    private void index(final Node node, final AccessRolesIndex acls) throws RepositoryException {
+        final Path path = AccessRolesIndex.toPath(node.getPath(), node.getSession());
+        if (node.isNodeType(rbaclAssignable.getQualified())) {
+            acls.put(path, getAssignments(node));
+        } else {
+            acls.remove(path);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public Map<String, Collection<String>> getRoles(final Node node, final boolean effective) {
+        final EffectiveAcl acl = getAcl(node, effective);
+        return acl == null ? null : acl.toMap();
+    }
+
+    /**
+     * {@inheritDoc} The node is always read through its own session, never answered from the index, so that the
+     * caller sees the changes it has made and not yet saved, and those saved a moment ago that the index has yet to
+     * catch up with.
+     */
+    @Override
+    public EffectiveAcl getAcl(final Node node, final boolean effective) {
+        return getAcl(node, effective, 0);
+    }
+
+    /**
+     * Read the ACL of a node, or if effective the first found on its ancestors, recording how many levels were
+     * walked up to find it.
+     *
+     * @param walked the levels already walked up to reach the node
+     */
+    private EffectiveAcl getAcl(final Node node, final boolean effective, final int walked) {
         try {
             LOGGER.debug("Finding roles for: {}, effective={}", node.getPath(), effective);
         } catch (final RepositoryException e) {
             LOGGER.debug("Unable to get path! {}", e.getMessage());
         }
 
-        final Map<String, Collection<String>> data = new HashMap<>();
         try {
 
             final Session session = node.getSession();
             registerPrefixes(session);
             if (node.isNodeType(rbaclAssignable.getQualified())) {
-                getAssignments(node, data);
-                return data;
+                if (effective) {
+                    RolesMetrics.ANCESTOR_WALK_DEPTH.update(walked);
+                }
+                return getAssignments(node);
             }
             if (effective) { // look up the tree
+                int depth = walked;
                 try {
                     for (Node n = node.getParent(); n != null; n = n.getParent()) {
+                        depth++;
                         if (n.isNodeType(rbaclAssignable.getQualified())) {
+                            RolesMetrics.ANCESTOR_WALK_DEPTH.update(depth);
                             if (LOGGER.isDebugEnabled()) {
                                 LOGGER.debug("effective roles are assigned at node: {}", n.getPath());
                             }
-                            getAssignments(n, data);
-                            if (LOGGER.isDebugEnabled()) {
-                                for (final Map.Entry<String, Collection<String>> entry : data.entrySet()) {
-                                    LOGGER.debug("{} has role(s) {}", entry.getKey(), entry.getValue());
-                                }
-                            }
-                            return data;
+                            final EffectiveAcl acl = getAssignments(n);
+                            LOGGER.debug("effective roles: {}", acl);
+                            return acl;
                         }
                     }
                 } catch (final ItemNotFoundException e) {
+                    RolesMetrics.ANCESTOR_WALK_DEPTH.update(depth);
                     LOGGER.debug("Subject not found, using default access roles: {}", e.getMessage());
-                    return DEFAULT_ACCESS_ROLES;
+                    return EffectiveAcl.EMPTY;
                 }
             }
         } catch (final RepositoryException e) {
@@ -108,16 +358,32 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
 
     /**
      * @param node
-     * @param data
+     * @return the roles assigned to each principal by the ACL of the node
      * @throws RepositoryException
      */
-    private void getAssignments(final Node node, final Map<String, Collection<String>> data)
-        throws RepositoryException {
-
+    private static EffectiveAcl getAssignments(final Node node) throws RepositoryException {
+        final EffectiveAcl.Builder data = EffectiveAcl.builder();
         if (node.isNodeType(rbaclAssignable.getQualified())) {
             try {
                 final Node rbacl = node.getNode(JcrName.rbacl.getQualified());
                 LOGGER.debug("got rbacl: {}", rbacl);
+                if (rbacl.hasProperty(grant.getQualified())) {
+                    for (final Value v : rbacl.getProperty(grant.getQualified()).getValues()) {
+                        final String[] names = v.getString().split(String.valueOf(GRANT_SEPARATOR));
+                        if (names[0].trim().length() == 0) {
+                            LOGGER.warn("found empty principal name on node {}", node.getPath());
+                            continue;
+                        }
+                        data.principal(names[0]);
+                        for (int i = 1; i < names.length; i++) {
+                            if (names[i].trim().length() == 0) {
+                                LOGGER.warn("found empty role name on node {}", node.getPath());
+                            } else {
+                                data.assign(names[0], names[i]);
+                            }
+                        }
+                    }
+                }
                 for (final NodeIterator ni = rbacl.getNodes(); ni.hasNext();) {
                     final Node assign = ni.nextNode();
                     final String principalName =
@@ -128,18 +394,14 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
                         LOGGER.warn("found empty principal name on node {}",
                                     node.getPath());
                     } else {
-                        Collection<String> roles = data.get(principalName);
-                        if (roles == null) {
-                            roles = new ArrayList<>();
-                            data.put(principalName, roles);
-                        }
+                        data.principal(principalName);
                         for (final Value v : assign.getProperty(
                                 role.getQualified()).getValues()) {
                             if (v == null || v.toString().trim().length() == 0) {
                                 LOGGER.warn("found empty role name on node {}",
                                             node.getPath());
                             } else {
-                                roles.add(v.toString());
+                                data.assign(principalName, v.toString());
                             }
                         }
                     }
@@ -150,6 +412,7 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
                              node.getPath());
             }
         }
+        return data.build();
     }
 
     /**
@@ -165,17 +428,151 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
             LOGGER.debug("added rbaclAssignable type");
         }
 
-        Node acl;
+        final Node acl = node.hasNode(rbacl.getQualified()) ? node.getNode(rbacl.getQualified())
+                : node.addNode(rbacl.getQualified(), Rbacl.getQualified());
+        writeAssignments(acl, data);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void patchRoles(final Node node, final Map<String, Set<String>> additions,
+            final Map<String, Set<String>> removals) throws RepositoryException {
+        final Session session = node.getSession();
+        registerPrefixes(session);
+        if (!node.isNodeType(rbaclAssignable.getQualified())) {
+            node.addMixin(rbaclAssignable.getQualified());
+            LOGGER.debug("added rbaclAssignable type");
+        }
+        final Node acl = node.hasNode(rbacl.getQualified()) ? node.getNode(rbacl.getQualified())
+                : node.addNode(rbacl.getQualified(), Rbacl.getQualified());
+        if (compactStorage || acl.hasProperty(grant.getQualified())) {
+            // an ACL held in a single property is rewritten whole, and moved to the configured layout on the way
+            final Map<String, Set<String>> assigned = readAssignments(acl);
+            final Map<String, Set<String>> patched = new LinkedHashMap<>();
+            assigned.forEach((principalName, roles) -> patched.put(principalName, new LinkedHashSet<>(roles)));
+            additions.forEach((principalName, roles) ->
+                    patched.computeIfAbsent(principalName, p -> new LinkedHashSet<>()).addAll(roles));
+            removals.forEach((principalName, roles) -> {
+                final Set<String> remaining = patched.get(principalName);
+                if (remaining != null && remaining.removeAll(roles) && remaining.isEmpty()) {
+                    patched.remove(principalName);
+                }
+            });
+            if (!patched.equals(assigned) || acl.hasNodes() || !acl.hasProperty(grant.getQualified())) {
+                writeAssignments(acl, patched);
+            }
+            return;
+        }
+
+        // read every assignment, but change only those of the principals named
+        final Map<String, Set<String>> assigned = new LinkedHashMap<>();
+        final Map<String, List<Node>> assignments = new HashMap<>();
+        for (final NodeIterator ni = acl.getNodes(); ni.hasNext();) {
+            final Node assign = ni.nextNode();
+            final String principalName = assign.getProperty(principal.getQualified()).getString();
+            final Set<String> roles = assigned.computeIfAbsent(principalName, p -> new LinkedHashSet<>());
+            for (final Value v : assign.getProperty(role.getQualified()).getValues()) {
+                if (v != null && v.toString().trim().length() > 0) {
+                    roles.add(v.toString());
+                }
+            }
+            assignments.computeIfAbsent(principalName, p -> new ArrayList<>(1)).add(assign);
+        }
+
+        final Set<String> principals = new LinkedHashSet<>(additions.keySet());
+        principals.addAll(removals.keySet());
+        int changed = 0;
+        for (final String principalName : principals) {
+            final Set<String> current = assigned.getOrDefault(principalName, emptySet());
+            final Set<String> roles = new LinkedHashSet<>(current);
+            roles.addAll(additions.getOrDefault(principalName, emptySet()));
+            roles.removeAll(removals.getOrDefault(principalName, emptySet()));
+            final List<Node> existing = assignments.getOrDefault(principalName, emptyList());
+            if (roles.equals(current) && existing.size() <= 1) {
+                continue;
+            }
+            changed++;
+            // a principal may have been assigned more than once; keep only the first assignment
+            for (final Node duplicate : existing.subList(Math.min(1, existing.size()), existing.size())) {
+                duplicate.remove();
+            }
+            if (roles.isEmpty()) {
+                if (!existing.isEmpty()) {
+                    existing.get(0).remove();
+                }
+            } else {
+                final Node assign;
+                if (existing.isEmpty()) {
+                    assign = acl.addNode(assignment.getQualified(), Assignment.getQualified());
+                    assign.setProperty(principal.getQualified(), principalName);
+                } else {
+                    assign = existing.get(0);
+                }
+                assign.setProperty(role.getQualified(), toArray(roles, String.class));
+            }
+        }
+        LOGGER.debug("Changed the assignments of {} of {} principals", changed, principals.size());
+    }
+
+    /**
+     * @param acl the ACL node
+     * @return the roles assigned to each principal, in either storage layout
+     * @throws RepositoryException
+     */
+    private static Map<String, Set<String>> readAssignments(final Node acl) throws RepositoryException {
+        final Map<String, Set<String>> assigned = new LinkedHashMap<>();
+        if (acl.hasProperty(grant.getQualified())) {
+            for (final Value v : acl.getProperty(grant.getQualified()).getValues()) {
+                final String[] names = v.getString().split(String.valueOf(GRANT_SEPARATOR));
+                final Set<String> roles = assigned.computeIfAbsent(names[0], p -> new LinkedHashSet<>());
+                for (int i = 1; i < names.length; i++) {
+                    roles.add(names[i]);
+                }
+            }
+        }
+        for (final NodeIterator ni = acl.hasNodes() ? acl.getNodes() : null; ni != null && ni.hasNext();) {
+            final Node assign = ni.nextNode();
+            final Set<String> roles = assigned.computeIfAbsent(
+                    assign.getProperty(principal.getQualified()).getString(), p -> new LinkedHashSet<>());
+            for (final Value v : assign.getProperty(role.getQualified()).getValues()) {
+                roles.add(v.getString());
+            }
+        }
+        return assigned;
+    }
 
-        if (node.hasNode(rbacl.getQualified())) {
-            acl = node.getNode(rbacl.getQualified());
+    /**
+     * Replace every assignment of an ACL, in whichever layout it was stored, with the given assignments stored in
+     * the configured layout.
+     *
+     * @param acl the ACL node
+     * @param data the roles to assign to each principal
+     * @throws RepositoryException
+     */
+    private void writeAssignments(final Node acl, final Map<String, Set<String>> data) throws RepositoryException {
+        if (acl.hasNodes()) {
             for (final NodeIterator ni = acl.getNodes(); ni.hasNext();) {
                 ni.nextNode().remove();
             }
-        } else {
-            acl = node.addNode(rbacl.getQualified(), Rbacl.getQualified());
         }
-
+        if (compactStorage) {
+            final String[] grants = new String[data.size()];
+            int i = 0;
+            for (final Map.Entry<String, Set<String>> entry : data.entrySet()) {
+                final StringBuilder encoded = new StringBuilder(checkName(entry.getKey()));
+                for (final String r : entry.getValue()) {
+                    encoded.append(GRANT_SEPARATOR).append(checkName(r));
+                }
+                grants[i++] = encoded.toString();
+            }
+            acl.setProperty(grant.getQualified(), grants);
+            return;
+        }
+        if (acl.hasProperty(grant.getQualified())) {
+            acl.getProperty(grant.getQualified()).remove();
+        }
         for (final Map.Entry<String, Set<String>> entry : data.entrySet()) {
             final Node assign = acl.addNode(assignment.getQualified(), Assignment.getQualified());
             assign.setProperty(principal.getQualified(), entry.getKey());
@@ -183,6 +580,56 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
         }
     }
 
+    private static String checkName(final String name) {
+        if (name.indexOf(GRANT_SEPARATOR) >= 0) {
+            throw new IllegalArgumentException("Principal and role names cannot contain control characters.");
+        }
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int migrateStorage(final Session session, final int batchSize) throws RepositoryException {
+        registerPrefixes(session);
+        int migrated = migrate(session.getRootNode()) ? 1 : 0;
+        int pending = migrated;
+        for (final NodeIterator ni = assignableDescendants(session, "/"); ni.hasNext();) {
+            if (migrate(ni.nextNode())) {
+                migrated++;
+                if (++pending >= batchSize) {
+                    session.save();
+                    pending = 0;
+                    LOGGER.info("Migrated {} ACLs to {} storage", migrated, compactStorage ? "property" : "node");
+                }
+            }
+        }
+        if (pending > 0) {
+            session.save();
+        }
+        LOGGER.info("Migrated {} ACLs to {} storage in all", migrated, compactStorage ? "property" : "node");
+        return migrated;
+    }
+
+    /**
+     * @param node a node that may carry an ACL
+     * @return whether its ACL was stored in the other layout, and has been rewritten
+     * @throws RepositoryException
+     */
+    private boolean migrate(final Node node) throws RepositoryException {
+        if (!node.isNodeType(rbaclAssignable.getQualified()) || !node.hasNode(rbacl.getQualified())) {
+            return false;
+        }
+        final Node acl = node.getNode(rbacl.getQualified());
+        if (compactStorage ? !acl.hasNodes() && acl.hasProperty(grant.getQualified())
+                : !acl.hasProperty(grant.getQualified())) {
+            return false;
+        }
+        writeAssignments(acl, readAssignments(acl));
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -209,20 +656,165 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
     @Override
     public Map<String, Collection<String>> findRolesForPath(final Path absPath,
             final Session session) throws RepositoryException {
-        Node node = null;
-        for (Path p = absPath; p != null; p = p.getParent()) {
-            try {
-                if (p.isRoot()) {
-                    node = session.getRootNode();
-                } else {
-                    node = session.getNode(p.getString());
+        final EffectiveAcl acl = findAclForPath(absPath, session);
+        return acl == null ? null : acl.toMap();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EffectiveAcl findAclForPath(final Path absPath, final Session session) throws RepositoryException {
+        final EffectiveAcl acl = findIndexedAclForPath(absPath);
+        return acl == null ? lookupAclForPath(absPath, session) : acl;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EffectiveAcl findIndexedAclForPath(final Path absPath) {
+        final AccessRolesIndex acls = index;
+        if (acls != null && indexed) {
+            final EffectiveAcl acl = acls.find(absPath);
+            // as when walking the repository, reaching the root without finding an ACL means no roles
+            return acl == null ? EffectiveAcl.EMPTY : acl;
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Path, EffectiveAcl> findAclsInSubtree(final Path absPath, final Session session)
+            throws RepositoryException {
+        final AccessRolesIndex acls = index;
+        if (acls != null && indexed) {
+            return acls.findAll(absPath);
+        }
+        final Map<Path, EffectiveAcl> found = new LinkedHashMap<>();
+        if (!absPath.isRoot() && !session.nodeExists(absPath.getString())) {
+            return found;
+        }
+        registerPrefixes(session);
+        final Node node = absPath.isRoot() ? session.getRootNode() : session.getNode(absPath.getString());
+        collectAssignments(node, found);
+        for (final NodeIterator ni = assignableDescendants(session, node.getPath()); ni.hasNext();) {
+            collectAssignments(ni.nextNode(), found);
+        }
+        return found;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Node> findAssignableNodes(final Session session) throws RepositoryException {
+        registerPrefixes(session);
+        final Node root = session.getRootNode();
+        final NodeIterator descendants = assignableDescendants(session, "/");
+        return new AbstractIterator<Node>() {
+
+            private boolean rootVisited;
+
+            @Override
+            protected Node computeNext() {
+                try {
+                    if (!rootVisited) {
+                        rootVisited = true;
+                        if (root.isNodeType(rbaclAssignable.getQualified())) {
+                            return root;
+                        }
+                    }
+                    return descendants.hasNext() ? descendants.nextNode() : endOfData();
+                } catch (final RepositoryException e) {
+                    throw new RepositoryRuntimeException(e);
                 }
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Path> findPathsForPrincipal(final String principal, final Path after, final int limit,
+            final Session session) throws RepositoryException {
+        final AccessRolesIndex acls = index;
+        final List<Path> found = new ArrayList<>(Math.min(limit, 1000));
+        if (acls != null && indexed) {
+            // the index sees every ACL, so leave out those the session could not have read itself
+            for (final Iterator<Path> paths = acls.findPaths(principal, after).iterator();
+                    paths.hasNext() && found.size() < limit;) {
+                final Path path = paths.next();
+                if (session.hasPermission(AccessRolesIndex.toAclJcrPath(path, session), "read")) {
+                    found.add(path);
+                }
+            }
+            return found;
+        }
+        // without the index, only the ACLs that name the principal are found, in either storage layout
+        registerPrefixes(session);
+        final NavigableSet<Path> paths = new TreeSet<>();
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        final ValueFactory values = session.getValueFactory();
+        final Query assignments = queryManager.createQuery(PRINCIPAL_ASSIGNMENTS, JCR_SQL2);
+        assignments.bindValue("principal", values.createValue(principal));
+        for (final RowIterator rows = assignments.execute().getRows(); rows.hasNext();) {
+            // each assignment lies within the ACL node of the node carrying the ACL
+            paths.add(AccessRolesIndex.toPath(rows.nextRow().getPath(), session).getParent().getParent());
+        }
+        final Query grants = queryManager.createQuery(PRINCIPAL_GRANTS, JCR_SQL2);
+        grants.bindValue("principal", values.createValue(principal));
+        grants.bindValue("grants", values.createValue(escapeLike(principal) + GRANT_SEPARATOR + '%'));
+        for (final RowIterator rows = grants.execute().getRows(); rows.hasNext();) {
+            paths.add(AccessRolesIndex.toPath(rows.nextRow().getPath(), session).getParent());
+        }
+        for (final Path path : after == null ? paths : paths.tailSet(after, false)) {
+            if (found.size() == limit) {
                 break;
-            } catch (final PathNotFoundException e) {
-                LOGGER.trace("Cannot find node: {}, trying parent.", p, e);
+            }
+            if (session.hasPermission(AccessRolesIndex.toAclJcrPath(path, session), "read")) {
+                found.add(path);
+            }
+        }
+        return found;
+    }
+
+    private static String escapeLike(final String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static void collectAssignments(final Node node, final Map<Path, EffectiveAcl> found)
+            throws RepositoryException {
+        if (node.isNodeType(rbaclAssignable.getQualified())) {
+            found.put(AccessRolesIndex.toPath(node.getPath(), node.getSession()), getAssignments(node));
+        }
+    }
+
+    /**
+     * Find the nearest existing node at or above a path and read its effective ACL. Existence is tested rather than
+     * discovered by failing to read, so looking up a path that is about to be created throws nothing.
+     */
+    private EffectiveAcl lookupAclForPath(final Path absPath,
+            final Session session) throws RepositoryException {
+        for (Path p = absPath;; p = p.getParent()) {
+            final int missing = absPath.size() - p.size();
+            if (p.isRoot()) {
+                return this.getAcl(session.getRootNode(), true, missing);
+            }
+            final String jcrPath = p.getString();
+            if (session.nodeExists(jcrPath)) {
+                try {
+                    return this.getAcl(session.getNode(jcrPath), true, missing);
+                } catch (final PathNotFoundException e) {
+                    LOGGER.trace("Node: {} removed since it was found, trying parent.", p, e);
+                }
+            } else {
+                LOGGER.trace("Cannot find node: {}, trying parent.", p);
             }
         }
-        return this.getRoles(node, true);
     }
 
 }
@@ -0,0 +1,202 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.security.Principal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.jcr.Item;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
+import org.slf4j.Logger;
+
+/**
+ * Checks that a user may remove every descendant of a node. The subtree is walked depth first with an explicit
+ * stack; whenever a walk has more than one subtree pending and the pool is short of work, the subtree nearest the
+ * top is handed off as a new task, which reads it through an internal session of its own. The first denial anywhere
+ * stops all of the walks.
+ *
+ * <p>Roles are inherited as they are when the user acts on a single node: a descendant with its own ACL is checked
+ * against the roles that ACL gives the user, any other against the roles in effect for its parent.</p>
+ *
+ * @author agent
+ */
+class RemovePermissionCheck extends RecursiveTask<Boolean> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = getLogger(RemovePermissionCheck.class);
+
+    private static final String[] REMOVE_ACTIONS = {"remove"};
+
+    /**
+     * Subtrees are only handed off while fewer than this many tasks are queued beyond what idle workers could take.
+     */
+    private static final int SURPLUS_TASKS = 2;
+
+    private final Traversal traversal;
+
+    private final String path;
+
+    private final Set<String> roles;
+
+    /**
+     * @param delegate the delegate whose decision applies to each descendant
+     * @param accessRolesProvider the source of ACLs
+     * @param sessions the source of internal sessions
+     * @param userSession the user session
+     * @param principals all principals of the user
+     * @param path the path of the node to be removed
+     * @param roles the roles of the user on that node
+     */
+    RemovePermissionCheck(final AbstractRolesAuthorizationDelegate delegate,
+            final AccessRolesProvider accessRolesProvider, final InternalSessionPool sessions,
+            final Session userSession, final Set<Principal> principals, final String path, final Set<String> roles) {
+        this(new Traversal(delegate, accessRolesProvider, sessions, userSession, principals), path, roles);
+    }
+
+    private RemovePermissionCheck(final Traversal traversal, final String path, final Set<String> roles) {
+        this.traversal = traversal;
+        this.path = path;
+        this.roles = roles;
+    }
+
+    @Override
+    protected Boolean compute() {
+        if (traversal.denied.get()) {
+            return false;
+        }
+        final List<RemovePermissionCheck> forked = new ArrayList<>();
+        final Session session = traversal.sessions.borrow();
+        try {
+            final Item item = session.getItem(path);
+            if (!item.isNode()) {
+                // this is a property and has no children...
+                return true;
+            }
+            final Deque<Subtree> pending = new ArrayDeque<>();
+            if (((Node) item).hasNodes()) {
+                pending.push(new Subtree((Node) item, roles));
+            }
+            while (!pending.isEmpty()) {
+                if (traversal.denied.get()) {
+                    return false;
+                }
+                final Subtree subtree = pending.pop();
+                final NodeIterator children = subtree.node.getNodes();
+                while (children.hasNext()) {
+                    final Node child = children.nextNode();
+                    final Set<String> childRoles = traversal.rolesOf(child, subtree.roles);
+                    if (!traversal.permits(child.getPath(), childRoles)) {
+                        return false;
+                    }
+                    if (child.hasNodes()) {
+                        pending.push(new Subtree(child, childRoles));
+                    }
+                }
+                while (pending.size() > 1 && getSurplusQueuedTaskCount() < SURPLUS_TASKS) {
+                    final Subtree handOff = pending.removeLast();
+                    final RemovePermissionCheck task =
+                            new RemovePermissionCheck(traversal, handOff.node.getPath(), handOff.roles);
+                    task.fork();
+                    forked.add(task);
+                }
+            }
+        } catch (final RepositoryException e) {
+            traversal.denied.set(true);
+            throw new RepositoryRuntimeException("Cannot lookup child permission check information for " + path, e);
+        } finally {
+            traversal.sessions.release(session);
+        }
+        for (final RemovePermissionCheck task : forked) {
+            if (!task.join()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * State shared by all of the tasks checking one subtree.
+     */
+    private static class Traversal {
+
+        private final AbstractRolesAuthorizationDelegate delegate;
+
+        private final AccessRolesProvider accessRolesProvider;
+
+        private final InternalSessionPool sessions;
+
+        private final Session userSession;
+
+        private final Set<Principal> principals;
+
+        private final AtomicBoolean denied = new AtomicBoolean();
+
+        private Traversal(final AbstractRolesAuthorizationDelegate delegate,
+                final AccessRolesProvider accessRolesProvider, final InternalSessionPool sessions,
+                final Session userSession, final Set<Principal> principals) {
+            this.delegate = delegate;
+            this.accessRolesProvider = accessRolesProvider;
+            this.sessions = sessions;
+            this.userSession = userSession;
+            this.principals = principals;
+        }
+
+        private Set<String> rolesOf(final Node node, final Set<String> parentRoles) {
+            final EffectiveAcl acl = accessRolesProvider.getAcl(node, false);
+            return acl == null ? parentRoles : acl.resolveRoles(principals);
+        }
+
+        private boolean permits(final String path, final Set<String> roles) {
+            if (denied.get()) {
+                return false;
+            }
+            if (delegate.rolesHavePermission(userSession, path, REMOVE_ACTIONS, roles)) {
+                return true;
+            }
+            LOGGER.info("Remove permission denied at {} with roles {}", path, roles);
+            denied.set(true);
+            return false;
+        }
+    }
+
+    private static class Subtree {
+
+        private final Node node;
+
+        private final Set<String> roles;
+
+        private Subtree(final Node node, final Set<String> roles) {
+            this.node = node;
+            this.roles = roles;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.fcrepo.metrics.RegistryService;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Metrics of the authorization hot path, kept in the repository's metrics registry.
+ *
+ * @author agent
+ */
+final class RolesMetrics {
+
+    private static final MetricRegistry METRICS = RegistryService.getInstance().getMetrics();
+
+    private static final String DELEGATE = AbstractRolesAuthorizationDelegate.class.getName();
+
+    /**
+     * Time taken by each permission check, as a whole.
+     */
+    static final Timer HAS_PERMISSION = METRICS.timer(name(DELEGATE, "hasPermission"));
+
+    /**
+     * Time taken by each batch of permission checks, as a whole.
+     */
+    static final Timer HAS_PERMISSIONS = METRICS.timer(name(DELEGATE, "hasPermissions"));
+
+    /**
+     * Time taken to find the effective ACL of the path being checked, from the index or the repository. Resolving
+     * the user's roles from it is not included.
+     */
+    static final Timer FIND_ROLES_FOR_PATH = METRICS.timer(name(DELEGATE, "findRolesForPath"));
+
+    /**
+     * Time taken to check that every descendant of a node being removed may be removed.
+     */
+    static final Timer CAN_REMOVE_CHILDREN_RECURSIVE = METRICS.timer(name(DELEGATE, "canRemoveChildrenRecursive"));
+
+    /**
+     * Time taken to check that every ACL beneath a node being removed permits it.
+     */
+    static final Timer CAN_REMOVE_CHILDREN_BY_ACL = METRICS.timer(name(DELEGATE, "canRemoveChildrenByAcl"));
+
+    /**
+     * Number of levels walked up the repository to find the node carrying an effective ACL, counting levels that do
+     * not exist yet. Lookups answered by the ACL index walk nothing and are not counted.
+     */
+    static final Histogram ANCESTOR_WALK_DEPTH =
+            METRICS.histogram(name(RbAclAccessRolesProvider.class, "findAclForPath", "ancestorWalkDepth"));
+
+    /**
+     * Number of reads permitted because EVERYONE may make them, without resolving the user's own roles.
+     */
+    static final Counter PUBLIC_READS = METRICS.counter(name(DELEGATE, "publicReads"));
+
+    /**
+     * Number of checks permitted because the user is a super-admin, without consulting any ACL.
+     */
+    static final Counter SUPER_ADMIN_CHECKS = METRICS.counter(name(DELEGATE, "superAdmin"));
+
+    private static final LongAdder SESSION_ROLES_HITS = new LongAdder();
+
+    private static final LongAdder SESSION_ROLES_MISSES = new LongAdder();
+
+    private static final Map<String, Counter> ALLOWED = new ConcurrentHashMap<>();
+
+    private static final Map<String, Counter> DENIED = new ConcurrentHashMap<>();
+
+    static {
+        register(name(DELEGATE, "sessionRoles", "hits"), (Gauge<Long>) SESSION_ROLES_HITS::sum);
+        register(name(DELEGATE, "sessionRoles", "misses"), (Gauge<Long>) SESSION_ROLES_MISSES::sum);
+    }
+
+    private RolesMetrics() {
+    }
+
+    private static <T extends Metric> T register(final String name, final T metric) {
+        // a metric left by an earlier copy of this class would otherwise keep the name
+        METRICS.remove(name);
+        return METRICS.register(name, metric);
+    }
+
+    /**
+     * Count the result of a permission check.
+     *
+     * @param actions the actions checked
+     * @param permitted whether they were permitted
+     */
+    static void decision(final String[] actions, final boolean permitted) {
+        final String action = actions.length == 1 ? actions[0] : String.join(",", actions);
+        // the counters are looked up by name only once, as building the name allocates
+        final Map<String, Counter> counters = permitted ? ALLOWED : DENIED;
+        Counter counter = counters.get(action);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(action, a -> decisions(a, permitted));
+        }
+        counter.inc();
+    }
+
+    /**
+     * @param action the action, or comma-separated actions, checked
+     * @param permitted whether they were permitted
+     * @return the count of checks of the action with that result
+     */
+    static Counter decisions(final String action, final boolean permitted) {
+        return METRICS.counter(name(DELEGATE, permitted ? "allow" : "deny", action));
+    }
+
+    /**
+     * Count a lookup of the roles already resolved for a session.
+     *
+     * @param hit whether the roles were found
+     */
+    static void sessionRoles(final boolean hit) {
+        (hit ? SESSION_ROLES_HITS : SESSION_ROLES_MISSES).increment();
+    }
+}
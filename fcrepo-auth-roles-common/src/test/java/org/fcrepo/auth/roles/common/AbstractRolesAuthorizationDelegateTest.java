@@ -18,33 +18,75 @@
 package org.fcrepo.auth.roles.common;
 
 import static java.util.Arrays.asList;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_ALL_PRINCIPALS;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_USER_PRINCIPAL;
+import static org.fcrepo.http.commons.test.util.TestHelpers.setField;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import org.fcrepo.http.commons.session.SessionFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.PathFactory;
 
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.google.common.collect.ImmutableSet;
+
 /**
  * @author Mike Daines
  */
 public class AbstractRolesAuthorizationDelegateTest {
 
+    private static final String OVERFLOW_READER = "overflowReader";
+
     @Mock
     private Principal principalA;
 
     @Mock
     private Principal principalB;
 
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private SessionFactory sessionFactory;
+
+    @Mock
+    private Session internalSession;
+
+    @Mock
+    private Path path;
+
+    @Mock
+    private Path otherPath;
+
+    @Mock
+    private Path unassignedPath;
+
+    private int decisions;
+
     @Before
     public void setUp() {
         initMocks(this);
@@ -89,4 +131,301 @@ public class AbstractRolesAuthorizationDelegateTest {
                 0, roles.size());
     }
 
+    @Test
+    public void shouldResolveRolesOncePerSessionAndAcl() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("a", asList("reader"));
+        when(accessRolesProvider.findAclForPath(any(Path.class), any(Session.class))).thenReturn(EffectiveAcl.of(acl));
+
+        final AbstractRolesAuthorizationDelegate delegate = delegate();
+        final Session session = userSession(principalA);
+        delegate.hasPermission(session, path, new String[] {"read"});
+        delegate.hasPermission(session, path, new String[] {"read"});
+        delegate.hasPermission(session, path, new String[] {"read"});
+
+        verify(principalA, times(1)).getName();
+    }
+
+    @Test
+    public void shouldResolveRolesAgainForNewAcl() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("a", asList("reader"));
+        final Map<String, Collection<String>> replacement = new HashMap<>();
+        replacement.put("a", asList("writer"));
+        when(accessRolesProvider.findAclForPath(any(Path.class), any(Session.class))).thenReturn(EffectiveAcl.of(acl),
+                EffectiveAcl.of(replacement));
+
+        final AbstractRolesAuthorizationDelegate delegate = delegate();
+        final Session session = userSession(principalA);
+        assertTrue("Reader should be permitted to read",
+                delegate.hasPermission(session, path, new String[] {"read"}));
+        assertTrue("Writer should be permitted to write",
+                delegate.hasPermission(session, path, new String[] {"write"}));
+
+        verify(principalA, times(2)).getName();
+    }
+
+    @Test
+    public void shouldResolveRolesAgainForNewSession() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("a", asList("reader"));
+        when(accessRolesProvider.findAclForPath(any(Path.class), any(Session.class))).thenReturn(EffectiveAcl.of(acl));
+
+        final AbstractRolesAuthorizationDelegate delegate = delegate();
+        delegate.hasPermission(userSession(principalA), path, new String[] {"read"});
+        delegate.hasPermission(userSession(principalA), path, new String[] {"read"});
+
+        verify(principalA, times(2)).getName();
+    }
+
+    @Test
+    public void shouldReuseInternalSession() throws RepositoryException {
+        when(accessRolesProvider.findAclForPath(any(Path.class), any(Session.class))).thenReturn(EffectiveAcl.EMPTY);
+        when(internalSession.isLive()).thenReturn(true);
+
+        final AbstractRolesAuthorizationDelegate delegate = delegate();
+        delegate.hasPermission(userSession(principalA), path, new String[] {"read"});
+        delegate.hasPermission(userSession(principalA), path, new String[] {"read"});
+
+        verify(sessionFactory, times(1)).getInternalSession();
+        verify(internalSession, times(1)).refresh(false);
+        verify(internalSession, never()).logout();
+
+        delegate.destroy();
+        verify(internalSession).logout();
+    }
+
+    @Test
+    public void shouldNotBorrowInternalSessionForIndexedAcl() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("a", asList("reader"));
+        when(accessRolesProvider.findIndexedAclForPath(path)).thenReturn(EffectiveAcl.of(acl));
+
+        assertTrue(delegate().hasPermission(userSession(principalA), path, new String[] {"read"}));
+
+        verify(sessionFactory, never()).getInternalSession();
+        verify(accessRolesProvider, never()).findAclForPath(any(Path.class), any(Session.class));
+    }
+
+    @Test
+    public void shouldDetectAclPathsBySegment() {
+        final PathFactory paths = new ExecutionContext().getValueFactories().getPathFactory();
+
+        assertTrue(AbstractRolesAuthorizationDelegate.isAclPath(
+                paths.create("/some/{" + Constants.JcrName.NS_URI + "}rbacl/{" + Constants.JcrName.NS_URI + "}a")));
+        assertFalse(AbstractRolesAuthorizationDelegate.isAclPath(paths.create("/some/path")));
+        assertFalse(AbstractRolesAuthorizationDelegate.isAclPath(paths.create("/")));
+    }
+
+    @Test
+    public void shouldCountDecisions() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("a", asList("reader"));
+        when(accessRolesProvider.findAclForPath(any(Path.class), any(Session.class))).thenReturn(EffectiveAcl.of(acl));
+        final long allowed = RolesMetrics.decisions("read", true).getCount();
+        final long denied = RolesMetrics.decisions("write", false).getCount();
+        final long checks = RolesMetrics.HAS_PERMISSION.getCount();
+
+        final AbstractRolesAuthorizationDelegate delegate = delegate();
+        final Session session = userSession(principalA);
+        delegate.hasPermission(session, path, new String[] {"read"});
+        delegate.hasPermission(session, path, new String[] {"write"});
+
+        assertEquals(allowed + 1, RolesMetrics.decisions("read", true).getCount());
+        assertEquals(denied + 1, RolesMetrics.decisions("write", false).getCount());
+        assertEquals(checks + 2, RolesMetrics.HAS_PERMISSION.getCount());
+    }
+
+    @Test
+    public void shouldDecideOncePerAclInBatch() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("a", asList("reader"));
+        final EffectiveAcl shared = EffectiveAcl.of(acl);
+        when(accessRolesProvider.findAclForPath(path, internalSession)).thenReturn(shared);
+        when(accessRolesProvider.findAclForPath(otherPath, internalSession)).thenReturn(shared);
+        when(accessRolesProvider.findAclForPath(unassignedPath, internalSession)).thenReturn(EffectiveAcl.EMPTY);
+
+        final Map<Path, Boolean> permissions = delegate().hasPermissions(userSession(principalA),
+                asList(path, otherPath, unassignedPath), new String[] {"read"});
+
+        assertEquals(asList(path, otherPath, unassignedPath), new ArrayList<>(permissions.keySet()));
+        assertTrue("Reader should be permitted to read", permissions.get(path));
+        assertTrue("Reader should be permitted to read", permissions.get(otherPath));
+        assertFalse("No roles should not be permitted to read", permissions.get(unassignedPath));
+        assertEquals("One decision should be made per distinct set of roles", 2, decisions);
+    }
+
+    @Test
+    public void shouldNotBorrowInternalSessionForIndexedAclsInBatch() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("a", asList("reader"));
+        when(accessRolesProvider.findIndexedAclForPath(path)).thenReturn(EffectiveAcl.of(acl));
+        when(accessRolesProvider.findIndexedAclForPath(otherPath)).thenReturn(EffectiveAcl.EMPTY);
+
+        final Map<Path, Boolean> permissions = delegate().hasPermissions(userSession(principalA),
+                asList(path, otherPath), new String[] {"read"});
+
+        assertTrue(permissions.get(path));
+        assertFalse(permissions.get(otherPath));
+        verify(sessionFactory, never()).getInternalSession();
+        verify(accessRolesProvider, never()).findAclForPath(any(Path.class), any(Session.class));
+    }
+
+    @Test
+    public void shouldBorrowInternalSessionOnceForUnindexedAclsInBatch() throws RepositoryException {
+        when(accessRolesProvider.findIndexedAclForPath(path)).thenReturn(EffectiveAcl.EMPTY);
+        when(accessRolesProvider.findAclForPath(any(Path.class), any(Session.class))).thenReturn(EffectiveAcl.EMPTY);
+
+        delegate().hasPermissions(userSession(principalA), asList(path, otherPath, unassignedPath),
+                new String[] {"read"});
+
+        verify(sessionFactory, times(1)).getInternalSession();
+        verify(accessRolesProvider, never()).findAclForPath(path, internalSession);
+        verify(accessRolesProvider).findAclForPath(otherPath, internalSession);
+        verify(accessRolesProvider).findAclForPath(unassignedPath, internalSession);
+    }
+
+    @Test
+    public void shouldDenyBatchWithoutPrincipals() {
+        final Map<Path, Boolean> permissions = delegate().hasPermissions(mock(Session.class),
+                asList(path, otherPath), new String[] {"read"});
+
+        assertFalse(permissions.get(path));
+        assertFalse(permissions.get(otherPath));
+        assertEquals(0, decisions);
+    }
+
+    @Test
+    public void shouldPermitPublicReadWithoutResolvingUserRoles() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("b", asList("reader"));
+        when(accessRolesProvider.findIndexedAclForPath(path)).thenReturn(EffectiveAcl.of(acl));
+
+        final AbstractRolesAuthorizationDelegate delegate = delegate(true);
+        assertTrue(delegate.hasPermission(userSession(principalA, principalB), path, new String[] {"read"}));
+        assertTrue(delegate.hasPermission(userSession(principalA, principalB), path, new String[] {"read"}));
+
+        verify(principalA, never()).getName();
+        assertEquals("EVERYONE's roles should be decided once per ACL", 1, decisions);
+    }
+
+    @Test
+    public void shouldPermitPublicReadByRoleWithoutBit() throws RepositoryException {
+        for (int i = 0; i <= EffectiveAcl.ROLE_BITS; i++) {
+            EffectiveAcl.roleBit("shouldPermitPublicReadByRoleWithoutBit" + i);
+        }
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("b", asList(OVERFLOW_READER));
+        when(accessRolesProvider.findIndexedAclForPath(path)).thenReturn(EffectiveAcl.of(acl));
+
+        assertEquals(EffectiveAcl.OVERFLOW, EffectiveAcl.roleBit(OVERFLOW_READER));
+        assertTrue(delegate(true).hasPermission(userSession(principalA, principalB), path, new String[] {"read"}));
+        verify(principalA, never()).getName();
+    }
+
+    @Test
+    public void shouldResolveUserRolesForPublicWrite() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("b", asList("reader"));
+        when(accessRolesProvider.findIndexedAclForPath(path)).thenReturn(EffectiveAcl.of(acl));
+
+        assertFalse(delegate(true).hasPermission(userSession(principalA, principalB), path, new String[] {"write"}));
+        verify(principalA).getName();
+    }
+
+    @Test
+    public void shouldResolveUserRolesWhenEveryoneMayNotRead() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("a", asList("reader"));
+        when(accessRolesProvider.findIndexedAclForPath(path)).thenReturn(EffectiveAcl.of(acl));
+
+        assertTrue(delegate(true).hasPermission(userSession(principalA, principalB), path, new String[] {"read"}));
+        verify(principalA).getName();
+    }
+
+    @Test
+    public void shouldResolveUserRolesUnlessPermissionsAccumulate() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("b", asList("reader"));
+        when(accessRolesProvider.findIndexedAclForPath(path)).thenReturn(EffectiveAcl.of(acl));
+
+        assertTrue(delegate().hasPermission(userSession(principalA, principalB), path, new String[] {"read"}));
+        verify(principalA).getName();
+    }
+
+    @Test
+    public void shouldPermitPublicReadsInBatch() throws RepositoryException {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("b", asList("reader"));
+        when(accessRolesProvider.findAclForPath(any(Path.class), any(Session.class))).thenReturn(EffectiveAcl.of(acl));
+
+        final Map<Path, Boolean> permissions = delegate(true).hasPermissions(userSession(principalA, principalB),
+                asList(path, otherPath), new String[] {"read"});
+
+        assertTrue(permissions.get(path));
+        assertTrue(permissions.get(otherPath));
+        verify(principalA, never()).getName();
+    }
+
+    @Test
+    public void shouldPermitSuperAdminWithoutLookingUpAcls() {
+        final AbstractRolesAuthorizationDelegate delegate = delegate();
+        setField(delegate, "superAdmins", ImmutableSet.of("ingest", "a"));
+
+        assertTrue(delegate.hasPermission(userSession(principalA), path, new String[] {"read"}));
+        assertTrue(delegate.hasPermission(userSession(principalA), path, new String[] {"remove"}));
+        assertTrue(delegate.hasPermissions(userSession(principalA), asList(path, otherPath),
+                new String[] {"add_node"}).get(otherPath));
+
+        verifyZeroInteractions(accessRolesProvider, sessionFactory);
+        assertEquals(0, decisions);
+    }
+
+    @Test
+    public void shouldCheckAclsForOtherPrincipals() throws RepositoryException {
+        when(accessRolesProvider.findAclForPath(any(Path.class), any(Session.class))).thenReturn(EffectiveAcl.EMPTY);
+        final AbstractRolesAuthorizationDelegate delegate = delegate();
+        setField(delegate, "superAdmins", ImmutableSet.of("ingest"));
+
+        assertFalse(delegate.hasPermission(userSession(principalA), path, new String[] {"read"}));
+    }
+
+    private AbstractRolesAuthorizationDelegate delegate() {
+        return delegate(false);
+    }
+
+    private AbstractRolesAuthorizationDelegate delegate(final boolean accumulate) {
+        final AbstractRolesAuthorizationDelegate delegate = new AbstractRolesAuthorizationDelegate() {
+
+            @Override
+            public boolean rolesHavePermission(final Session userSession, final String absPath,
+                    final String[] actions, final Set<String> roles) {
+                decisions++;
+                return roles.contains("writer") ||
+                        ((roles.contains("reader") || roles.contains(OVERFLOW_READER)) && "read".equals(actions[0]));
+            }
+
+            @Override
+            public Principal getEveryonePrincipal() {
+                return principalB;
+            }
+
+            @Override
+            protected boolean permissionsAccumulate() {
+                return accumulate;
+            }
+        };
+        setField(delegate, "accessRolesProvider", accessRolesProvider);
+        setField(delegate, "sessionFactory", sessionFactory);
+        when(sessionFactory.getInternalSession()).thenReturn(internalSession);
+        return delegate;
+    }
+
+    private static Session userSession(final Principal... principal) {
+        final Set<Principal> principals = new HashSet<>(asList(principal));
+        final Session session = mock(Session.class);
+        when(session.getAttribute(FEDORA_USER_PRINCIPAL)).thenReturn(principal[0]);
+        when(session.getAttribute(FEDORA_ALL_PRINCIPALS)).thenReturn(principals);
+        return session;
+    }
 }
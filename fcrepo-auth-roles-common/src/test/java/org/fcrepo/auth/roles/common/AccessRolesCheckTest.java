@@ -0,0 +1,187 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.nCopies;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
+import org.fcrepo.kernel.api.models.FedoraResource;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.modeshape.jcr.value.Path;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * @author agent
+ */
+public class AccessRolesCheckTest {
+
+    @Mock
+    private AbstractRolesAuthorizationDelegate authorizationDelegate;
+
+    @Mock
+    private IdentifierConverter<Resource, FedoraResource> translator;
+
+    @Mock
+    private Session session;
+
+    private AccessRolesCheck accessRolesCheck;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        accessRolesCheck = new AccessRolesCheck();
+        setField(accessRolesCheck, "authorizationDelegate", authorizationDelegate);
+        setField(accessRolesCheck, "identifierTranslator", translator);
+        setField(accessRolesCheck, "session", session);
+        when(translator.toDomain(anyString())).thenAnswer(invocation -> {
+            final Resource resource = mock(Resource.class);
+            when(translator.asString(resource)).thenReturn((String) invocation.getArguments()[0]);
+            return resource;
+        });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCheck() throws IOException {
+        when(authorizationDelegate.hasPermissions(eq(session), any(Collection.class), any(String[].class)))
+                .thenAnswer(invocation -> {
+                    final String action = ((String[]) invocation.getArguments()[2])[0];
+                    final Map<Path, Boolean> decisions = new LinkedHashMap<>();
+                    for (final Path path : (Collection<Path>) invocation.getArguments()[1]) {
+                        decisions.put(path, "read".equals(action) || path.getString().equals("/b"));
+                    }
+                    return decisions;
+                });
+
+        final Response response = accessRolesCheck.check(data(asList("/a", "/b"), asList("read", "write")));
+
+        assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        assertEquals("{\"/a\":{\"read\":true,\"write\":false},\"/b\":{\"read\":true,\"write\":true}}",
+                out.toString("UTF-8"));
+        verify(session).logout();
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void testCheckWithoutActions() {
+        accessRolesCheck.check(singletonMap("paths", asList("/a")));
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void testCheckEmptyPath() {
+        accessRolesCheck.check(data(asList("/a", " "), asList("read")));
+    }
+
+    @Test
+    public void testCheckTooManyPaths() {
+        try {
+            accessRolesCheck.check(data(nCopies(AccessRolesCheck.MAX_PATHS + 1, "/a"), asList("read")));
+            fail("A request with too many paths should be refused");
+        } catch (final WebApplicationException e) {
+            assertEquals(Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode(), e.getResponse().getStatus());
+        }
+        verify(translator, never()).toDomain(anyString());
+        verify(session).logout();
+    }
+
+    @Test
+    public void testCheckTooManyRemovals() {
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i <= AccessRolesCheck.MAX_REMOVE_PATHS; i++) {
+            paths.add("/a" + i);
+        }
+        try {
+            accessRolesCheck.check(data(paths, asList("read", "remove")));
+            fail("Checking removal of too many paths should be refused");
+        } catch (final WebApplicationException e) {
+            assertEquals(Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode(), e.getResponse().getStatus());
+        }
+        verify(session).logout();
+    }
+
+    @Test
+    public void testCheckRemovals() {
+        final Response response = accessRolesCheck.check(data(nCopies(AccessRolesCheck.MAX_REMOVE_PATHS, "/a"),
+                asList("remove")));
+
+        assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteEscapesPaths() throws IOException, RepositoryException {
+        final Path path = AccessRolesIndex.toPath("/a", session);
+        when(authorizationDelegate.hasPermissions(eq(session), any(Collection.class), any(String[].class)))
+                .thenReturn(singletonMap(path, true));
+        final StringWriter out = new StringWriter();
+
+        accessRolesCheck.write(out, singletonMap("/\"a\"\n", path), asList("read"));
+
+        assertEquals("{\"/\\\"a\\\"\\n\":{\"read\":true}}", out.toString());
+    }
+
+    @Test
+    public void testCheckWithoutDelegate() {
+        setField(accessRolesCheck, "authorizationDelegate", null);
+
+        final Response response = accessRolesCheck.check(data(asList("/a"), asList("read")));
+
+        assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
+        verify(session).logout();
+    }
+
+    private static Map<String, List<String>> data(final List<String> paths, final List<String> actions) {
+        final Map<String, List<String>> data = new HashMap<>();
+        data.put("paths", paths);
+        data.put("actions", actions);
+        return data;
+    }
+}
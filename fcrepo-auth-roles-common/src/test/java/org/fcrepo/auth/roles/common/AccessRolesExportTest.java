@@ -0,0 +1,192 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createResource;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
+import org.fcrepo.kernel.api.models.FedoraResource;
+import org.fcrepo.kernel.api.services.NodeService;
+import org.fcrepo.kernel.modeshape.FedoraResourceImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * @author agent
+ */
+public class AccessRolesExportTest {
+
+    private static final String BASE_URI = "http://localhost/rest";
+
+    /**
+     * Where the stub translator keeps resources in the repository.
+     */
+    private static final String JCR_ROOT = "/repository";
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private Node first;
+
+    @Mock
+    private Node second;
+
+    @Mock
+    private NodeService nodeService;
+
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    private AccessRolesExport accessRolesExport;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        initMocks(this);
+        accessRolesExport = new AccessRolesExport();
+        setField(accessRolesExport, "accessRolesProvider", accessRolesProvider);
+        setField(accessRolesExport, "session", session);
+        setField(accessRolesExport, "nodeService", nodeService);
+        setField(accessRolesExport, "identifierTranslator", new StubTranslator());
+        when(first.getPath()).thenReturn(JCR_ROOT + "/a");
+        when(second.getPath()).thenReturn(JCR_ROOT + "/a/b c");
+        nodes.put(JCR_ROOT + "/a", first);
+        nodes.put(JCR_ROOT + "/a/b c", second);
+        when(nodeService.find(eq(session), anyString())).thenAnswer(invocation -> {
+            final FedoraResource resource = mock(FedoraResource.class);
+            when(resource.getPath()).thenReturn((String) invocation.getArguments()[1]);
+            return resource;
+        });
+        when(session.nodeExists(anyString())).thenReturn(true);
+        when(accessRolesProvider.getAcl(first, false))
+                .thenReturn(EffectiveAcl.of(singletonMap("alice", asList("writer"))));
+        when(accessRolesProvider.getAcl(second, false))
+                .thenReturn(EffectiveAcl.of(singletonMap("bob", asList("reader"))));
+        when(accessRolesProvider.findAssignableNodes(session)).thenReturn(asList(first, second).iterator());
+    }
+
+    @Test
+    public void testExportRecords() throws IOException {
+        final StringWriter out = new StringWriter();
+
+        accessRolesExport.exportRecords(out);
+
+        assertEquals("Resources should be exported by their external paths",
+                "{\"path\":\"/a\",\"roles\":{\"alice\":[\"writer\"]}}\n" +
+                "{\"path\":\"/a/b c\",\"roles\":{\"bob\":[\"reader\"]}}\n", out.toString());
+    }
+
+    @Test
+    public void testExportSkipsRemovedAcl() throws IOException {
+        when(accessRolesProvider.getAcl(first, false)).thenReturn(null);
+        final StringWriter out = new StringWriter();
+
+        accessRolesExport.exportRecords(out);
+
+        assertEquals("A node whose ACL is gone should be left out",
+                "{\"path\":\"/a/b c\",\"roles\":{\"bob\":[\"reader\"]}}\n", out.toString());
+    }
+
+    @Test
+    public void testExportImportRoundTrip() throws IOException, RepositoryException {
+        final StringWriter exported = new StringWriter();
+        accessRolesExport.exportRecords(exported);
+
+        final AccessRolesImport accessRolesImport = new AccessRolesImport();
+        setField(accessRolesImport, "accessRolesProvider", accessRolesProvider);
+        setField(accessRolesImport, "session", session);
+        setField(accessRolesImport, "identifierTranslator", new StubTranslator());
+        final StringWriter report = new StringWriter();
+        accessRolesImport.importRecords(new BufferedReader(new StringReader(exported.toString())), report, 10);
+
+        assertEquals("{\"lines\":[1,2],\"saved\":2}\n{\"imported\":2,\"failed\":0}\n", report.toString());
+        verify(accessRolesProvider).postRoles(first, singletonMap("alice", singleton("writer")));
+        verify(accessRolesProvider).postRoles(second, singletonMap("bob", singleton("reader")));
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        final Response response = accessRolesExport.export();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        assertEquals(2, out.toString("UTF-8").split("\n").length);
+        verify(session).logout();
+    }
+
+    /**
+     * Maps the resource at each path under {@link #BASE_URI} to the node at that path under {@link #JCR_ROOT}.
+     */
+    private class StubTranslator extends IdentifierConverter<Resource, FedoraResource> {
+
+        @Override
+        public boolean inDomain(final Resource resource) {
+            return resource.getURI().startsWith(BASE_URI + "/");
+        }
+
+        @Override
+        public Resource toDomain(final String path) {
+            return createResource(BASE_URI + path.replace(" ", "%20"));
+        }
+
+        @Override
+        public String asString(final Resource resource) {
+            return JCR_ROOT + resource.getURI().substring(BASE_URI.length()).replace("%20", " ");
+        }
+
+        @Override
+        protected FedoraResource doForward(final Resource resource) {
+            return new FedoraResourceImpl(nodes.get(asString(resource)));
+        }
+
+        @Override
+        protected Resource doBackward(final FedoraResource resource) {
+            return toDomain(resource.getPath().substring(JCR_ROOT.length()));
+        }
+    }
+}
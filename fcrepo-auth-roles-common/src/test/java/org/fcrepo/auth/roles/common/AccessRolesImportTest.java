@@ -0,0 +1,153 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
+import org.fcrepo.kernel.api.models.FedoraResource;
+import org.fcrepo.kernel.modeshape.FedoraResourceImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * @author agent
+ */
+public class AccessRolesImportTest {
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private IdentifierConverter<Resource, FedoraResource> translator;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private Node node;
+
+    private AccessRolesImport accessRolesImport;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        initMocks(this);
+        accessRolesImport = new AccessRolesImport();
+        setField(accessRolesImport, "accessRolesProvider", accessRolesProvider);
+        setField(accessRolesImport, "identifierTranslator", translator);
+        setField(accessRolesImport, "session", session);
+        when(translator.toDomain(anyString())).thenAnswer(invocation -> {
+            final Resource resource = mock(Resource.class);
+            when(translator.asString(resource)).thenReturn((String) invocation.getArguments()[0]);
+            when(translator.convert(resource)).thenReturn(new FedoraResourceImpl(node));
+            return resource;
+        });
+        when(session.nodeExists(anyString())).thenReturn(true);
+        when(session.nodeExists("/missing")).thenReturn(false);
+    }
+
+    @Test
+    public void testImport() throws IOException, RepositoryException {
+        final String records = "{\"path\":\"/a\",\"roles\":{\"alice\":[\"writer\"]}}\n" +
+                "not json\n" +
+                "{\"path\":\"/missing\",\"roles\":{\"alice\":[\"writer\"]}}\n" +
+                "{\"path\":\"/b\",\"roles\":{\"bob\":[\"reader\"]}}\n" +
+                "\n" +
+                "{\"path\":\"/c\",\"roles\":{\"carol\":[\"admin\"]}}\n";
+
+        final String[] reports = importRecords(records, 2);
+
+        assertEquals(5, reports.length);
+        assertEquals("{\"line\":2,", reports[0].substring(0, 10));
+        assertEquals("{\"line\":3,\"error\":\"No resource found at /missing\"}", reports[1]);
+        assertEquals("{\"lines\":[1,4],\"saved\":2}", reports[2]);
+        assertEquals("{\"lines\":[6,6],\"saved\":1}", reports[3]);
+        assertEquals("{\"imported\":3,\"failed\":2}", reports[4]);
+        verify(accessRolesProvider, times(3)).postRoles(eq(node), Matchers.<Map<String, Set<String>>>any());
+        verify(session, times(2)).save();
+    }
+
+    @Test
+    public void testImportInvalidRoles() throws IOException, RepositoryException {
+        final String[] reports = importRecords("{\"path\":\"/a\",\"roles\":{\"alice\":[]}}\n", 10);
+
+        assertEquals(2, reports.length);
+        assertEquals("{\"imported\":0,\"failed\":1}", reports[1]);
+        verify(accessRolesProvider, times(0)).postRoles(any(Node.class), Matchers.<Map<String, Set<String>>>any());
+    }
+
+    @Test
+    public void testImportControlCharacterRejectsOnlyItsRecord() throws IOException, RepositoryException {
+        final String records = "{\"path\":\"/a\",\"roles\":{\"alice\":[\"writer\"]}}\n" +
+                "{\"path\":\"/b\",\"roles\":{\"bob\":[\"read\\u001fer\"]}}\n" +
+                "{\"path\":\"/c\",\"roles\":{\"carol\":[\"admin\"]}}\n";
+
+        final String[] reports = importRecords(records, 10);
+
+        assertEquals(3, reports.length);
+        assertEquals("{\"line\":2,\"error\":\"Principal and role names cannot contain control characters.\"}",
+                reports[0]);
+        assertEquals("{\"lines\":[1,3],\"saved\":2}", reports[1]);
+        assertEquals("{\"imported\":2,\"failed\":1}", reports[2]);
+        verify(accessRolesProvider, times(2)).postRoles(eq(node), Matchers.<Map<String, Set<String>>>any());
+        verify(session, never()).refresh(false);
+    }
+
+    @Test
+    public void testImportFailedSave() throws IOException, RepositoryException {
+        doThrow(new RepositoryException("expected")).when(session).save();
+
+        final String[] reports = importRecords("{\"path\":\"/a\",\"roles\":{\"alice\":[\"writer\"]}}\n", 10);
+
+        assertEquals("{\"lines\":[1,1],\"error\":\"expected\"}", reports[0]);
+        assertEquals("{\"imported\":0,\"failed\":1}", reports[1]);
+        verify(session).refresh(false);
+    }
+
+    private String[] importRecords(final String records, final int batchSize) throws IOException {
+        final StringWriter out = new StringWriter();
+        accessRolesImport.importRecords(new BufferedReader(new StringReader(records)), out, batchSize);
+        return out.toString().split("\n");
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.common.Constants.JcrName;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * @author agent
+ */
+public class AccessRolesIndexTest {
+
+    private static final EffectiveAcl ROOT_ACL = EffectiveAcl.of(singletonMap("admin", asList("admin")));
+
+    private static final EffectiveAcl COLLECTION_ACL = EffectiveAcl.of(singletonMap("user", asList("writer")));
+
+    private static final EffectiveAcl ITEM_ACL = EffectiveAcl.of(singletonMap("user", asList("reader")));
+
+    @Mock
+    private Session session;
+
+    private AccessRolesIndex index;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        initMocks(this);
+        when(session.getNamespaceURI(JcrName.NS_PREFIX)).thenReturn(JcrName.NS_URI);
+
+        index = new AccessRolesIndex();
+        index.put(path("/"), ROOT_ACL);
+        index.put(path("/collection"), COLLECTION_ACL);
+        index.put(path("/collection/item"), ITEM_ACL);
+    }
+
+    @Test
+    public void testFindSelf() throws RepositoryException {
+        assertSame(COLLECTION_ACL, index.find(path("/collection")));
+        assertSame(ROOT_ACL, index.find(path("/")));
+    }
+
+    @Test
+    public void testFindNearestAncestor() throws RepositoryException {
+        assertSame(COLLECTION_ACL, index.find(path("/collection/other/deeper")));
+        assertSame(ITEM_ACL, index.find(path("/collection/item/child")));
+        assertSame(ROOT_ACL, index.find(path("/elsewhere")));
+    }
+
+    @Test
+    public void testFindNoAcl() throws RepositoryException {
+        index.remove(path("/"));
+
+        assertNull("Paths without an ACL-bearing ancestor should have no roles", index.find(path("/elsewhere")));
+    }
+
+    @Test
+    public void testRemoveKeepsDescendants() throws RepositoryException {
+        index.remove(path("/collection"));
+
+        assertSame(ROOT_ACL, index.find(path("/collection/other")));
+        assertSame(ITEM_ACL, index.find(path("/collection/item")));
+    }
+
+    @Test
+    public void testReplaceSubtree() throws RepositoryException {
+        final EffectiveAcl moved = EffectiveAcl.of(singletonMap("other", asList("reader")));
+        index.replaceSubtree(path("/collection"), singletonMap(path("/collection/moved"), moved));
+
+        assertSame(ROOT_ACL, index.find(path("/collection/other")));
+        assertSame(ROOT_ACL, index.find(path("/collection/item")));
+        assertSame(moved, index.find(path("/collection/moved/child")));
+        assertEquals(1, index.findAll(path("/collection")).size());
+    }
+
+    @Test
+    public void testReplaceSubtreeWithNothing() throws RepositoryException {
+        index.replaceSubtree(path("/collection"), emptyMap());
+
+        assertSame(ROOT_ACL, index.find(path("/collection/other")));
+        assertSame(ROOT_ACL, index.find(path("/collection/item")));
+        assertTrue(index.findAll(path("/collection")).isEmpty());
+    }
+
+    @Test
+    public void testReplaceSubtreeBeneathUnindexedPath() throws RepositoryException {
+        index.replaceSubtree(path("/elsewhere/deeper"), singletonMap(path("/elsewhere/deeper"), ITEM_ACL));
+
+        assertSame(ITEM_ACL, index.find(path("/elsewhere/deeper/child")));
+        assertSame(ROOT_ACL, index.find(path("/elsewhere")));
+    }
+
+    @Test
+    public void testReplaceRoot() throws RepositoryException {
+        index.replaceSubtree(path("/"), singletonMap(path("/collection/item"), ITEM_ACL));
+
+        assertNull(index.find(path("/collection")));
+        assertSame(ITEM_ACL, index.find(path("/collection/item")));
+        assertTrue(index.findPaths("admin", null).isEmpty());
+        assertEquals(asList(path("/collection/item")), new ArrayList<>(index.findPaths("user", null)));
+    }
+
+    @Test
+    public void testReplace() throws RepositoryException {
+        final EffectiveAcl replacement = EffectiveAcl.of(singletonMap("other", asList("admin")));
+        index.put(path("/collection"), replacement);
+
+        assertSame(replacement, index.find(path("/collection/other")));
+    }
+
+    @Test
+    public void testFindAll() throws RepositoryException {
+        final Map<Path, EffectiveAcl> acls = index.findAll(path("/collection"));
+
+        assertEquals(2, acls.size());
+        assertSame(COLLECTION_ACL, acls.get(path("/collection")));
+        assertSame(ITEM_ACL, acls.get(path("/collection/item")));
+        assertTrue("Ancestors should come first", acls.keySet().iterator().next().equals(path("/collection")));
+    }
+
+    @Test
+    public void testFindAllBeneathUnindexedPath() throws RepositoryException {
+        assertTrue(index.findAll(path("/elsewhere")).isEmpty());
+        assertEquals(1, index.findAll(path("/collection/item")).size());
+    }
+
+    @Test
+    public void testFindPaths() throws RepositoryException {
+        assertEquals(asList(path("/collection"), path("/collection/item")),
+                new ArrayList<>(index.findPaths("user", null)));
+        assertEquals(asList(path("/collection/item")), new ArrayList<>(index.findPaths("user", path("/collection"))));
+        assertTrue(index.findPaths("nobody", null).isEmpty());
+    }
+
+    @Test
+    public void testFindPathsFollowsChanges() throws RepositoryException {
+        index.put(path("/collection"), EffectiveAcl.of(singletonMap("other", asList("admin"))));
+        index.remove(path("/"));
+
+        assertEquals(asList(path("/collection/item")), new ArrayList<>(index.findPaths("user", null)));
+        assertEquals(asList(path("/collection")), new ArrayList<>(index.findPaths("other", null)));
+        assertTrue(index.findPaths("admin", null).isEmpty());
+
+        index.replaceSubtree(path("/collection"), emptyMap());
+
+        assertTrue(index.findPaths("user", null).isEmpty());
+        assertTrue(index.findPaths("other", null).isEmpty());
+    }
+
+    @Test
+    public void testToJcrPath() throws RepositoryException {
+        when(session.getNamespacePrefix(JcrName.NS_URI)).thenReturn(JcrName.NS_PREFIX);
+        final String jcrPath = "/collection/authz:rbacl/authz:assignment[2]";
+
+        assertEquals(jcrPath, AccessRolesIndex.toJcrPath(path(jcrPath), session));
+        assertEquals("/", AccessRolesIndex.toJcrPath(path("/"), session));
+    }
+
+    @Test
+    public void testToPathExpandsPrefixes() throws RepositoryException {
+        final Path path = path("/collection/authz:rbacl/authz:assignment[2]");
+
+        assertEquals(3, path.size());
+        assertEquals("{" + JcrName.NS_URI + "}rbacl", path.getSegment(1).getString());
+        assertEquals(2, path.getLastSegment().getIndex());
+        assertSame(COLLECTION_ACL, index.find(path));
+    }
+
+    private Path path(final String jcrPath) throws RepositoryException {
+        return AccessRolesIndex.toPath(jcrPath, session);
+    }
+}
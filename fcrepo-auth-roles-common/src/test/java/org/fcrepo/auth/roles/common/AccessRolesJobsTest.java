@@ -0,0 +1,96 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import javax.jcr.Session;
+import javax.ws.rs.core.Response;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+/**
+ * @author agent
+ */
+public class AccessRolesJobsTest {
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private PrincipalChangeJobs principalChangeJobs;
+
+    @Mock
+    private Session session;
+
+    private PrincipalChangeJobs.Job job;
+
+    private AccessRolesJobs accessRolesJobs;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        job = new PrincipalChangeJobs.Job(() -> session, "admin", (s, jcrPath) -> jcrPath, accessRolesProvider,
+                "user", null, 100);
+        when(principalChangeJobs.get(job.getId())).thenReturn(job);
+        accessRolesJobs = new AccessRolesJobs();
+        setField(accessRolesJobs, "principalChangeJobs", principalChangeJobs);
+        setField(accessRolesJobs, "session", session);
+    }
+
+    @Test
+    public void testGetJob() {
+        when(session.getUserID()).thenReturn("admin");
+
+        final Response response = accessRolesJobs.getJob(job.getId());
+
+        assertEquals(200, response.getStatus());
+        assertEquals(job.toMap(), response.getEntity());
+        verify(session).logout();
+    }
+
+    @Test
+    public void testGetJobOfAnotherUser() {
+        when(session.getUserID()).thenReturn("someone");
+
+        assertEquals(404, accessRolesJobs.getJob(job.getId()).getStatus());
+        verify(session).logout();
+    }
+
+    @Test
+    public void testGetUnknownJob() {
+        assertEquals(404, accessRolesJobs.getJob("unknown").getStatus());
+    }
+
+    @Test
+    public void testCancelJob() {
+        when(session.getUserID()).thenReturn("admin");
+
+        assertEquals(202, accessRolesJobs.cancelJob(job.getId()).getStatus());
+        job.run();
+
+        assertEquals(PrincipalChangeJobs.Job.State.CANCELLED, job.getState());
+        verify(session).logout();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+/**
+ * @author agent
+ */
+public class AccessRolesMigrationTest {
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private Session session;
+
+    private AccessRolesMigration accessRolesMigration;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        accessRolesMigration = new AccessRolesMigration();
+        setField(accessRolesMigration, "accessRolesProvider", accessRolesProvider);
+        setField(accessRolesMigration, "session", session);
+    }
+
+    @Test
+    public void testMigrate() throws RepositoryException {
+        when(accessRolesProvider.migrateStorage(session, 50)).thenReturn(3);
+
+        final Response response = accessRolesMigration.migrate(50);
+
+        assertEquals(200, response.getStatus());
+        assertEquals(singletonMap("migrated", 3), response.getEntity());
+        verify(session).logout();
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void testMigrateBadBatchSize() throws RepositoryException {
+        try {
+            accessRolesMigration.migrate(0);
+        } finally {
+            verify(accessRolesProvider, never()).migrateStorage(any(Session.class), anyInt());
+            verify(session).logout();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createResource;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
+import org.fcrepo.kernel.api.models.FedoraResource;
+import org.fcrepo.kernel.api.services.NodeService;
+import org.modeshape.jcr.value.Path;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * @author agent
+ */
+public class AccessRolesPrincipalsTest {
+
+    private static final String BASE_URI = "http://localhost/rest";
+
+    private static final String REQUEST_URI = BASE_URI + "/fcr:accessroles/principals/user?limit=2";
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private UriInfo uriInfo;
+
+    @Mock
+    private PrincipalChangeJobs principalChangeJobs;
+
+    @Mock
+    private NodeService nodeService;
+
+    private AccessRolesPrincipals accessRolesPrincipals;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        accessRolesPrincipals = new AccessRolesPrincipals();
+        setField(accessRolesPrincipals, "accessRolesProvider", accessRolesProvider);
+        setField(accessRolesPrincipals, "session", session);
+        setField(accessRolesPrincipals, "uriInfo", uriInfo);
+        setField(accessRolesPrincipals, "principalChangeJobs", principalChangeJobs);
+        setField(accessRolesPrincipals, "nodeService", nodeService);
+        setField(accessRolesPrincipals, "identifierTranslator", new StubTranslator());
+        when(uriInfo.getRequestUriBuilder()).thenReturn(UriBuilder.fromUri(REQUEST_URI));
+        when(session.nodeExists(anyString())).thenReturn(true);
+        when(nodeService.find(eq(session), anyString())).thenAnswer(invocation -> {
+            final FedoraResource resource = mock(FedoraResource.class);
+            when(resource.getPath()).thenReturn((String) invocation.getArguments()[1]);
+            return resource;
+        });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetLastPage() throws RepositoryException {
+        when(accessRolesProvider.findPathsForPrincipal("user", null, 2, session))
+                .thenReturn(asList(path("/a")));
+
+        final Response response = accessRolesPrincipals.getResources("user", null, 2);
+
+        assertEquals(200, response.getStatus());
+        final Map<String, Object> page = (Map<String, Object>) response.getEntity();
+        assertEquals("user", page.get("principal"));
+        assertEquals("Resources should be listed by their URIs", asList(BASE_URI + "/a"), page.get("resources"));
+        assertFalse("The last page should not link onwards", page.containsKey("next"));
+        assertNull(response.getHeaderString("Link"));
+        verify(session).logout();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetFullPage() throws RepositoryException {
+        when(accessRolesProvider.findPathsForPrincipal("user", path("/a"), 2, session))
+                .thenReturn(asList(path("/b"), path("/c/d")));
+
+        final Response response = accessRolesPrincipals.getResources("user", BASE_URI + "/a", 2);
+
+        final Map<String, Object> page = (Map<String, Object>) response.getEntity();
+        assertEquals(asList(BASE_URI + "/b", BASE_URI + "/c/d"), page.get("resources"));
+        final String next = (String) page.get("next");
+        assertEquals(UriBuilder.fromUri(REQUEST_URI).replaceQueryParam("after", BASE_URI + "/c/d").build().toString(),
+                next);
+        assertEquals("<" + next + ">;rel=\"next\"", response.getHeaderString("Link"));
+        verify(session).logout();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetPageWithRemovedResource() throws RepositoryException {
+        when(accessRolesProvider.findPathsForPrincipal("user", null, 2, session))
+                .thenReturn(asList(path("/a"), path("/b")));
+        when(session.nodeExists("/b")).thenReturn(false);
+
+        final Response response = accessRolesPrincipals.getResources("user", null, 2);
+
+        assertEquals(200, response.getStatus());
+        final Map<String, Object> page = (Map<String, Object>) response.getEntity();
+        assertEquals("Removed resources should be left out", asList(BASE_URI + "/a"), page.get("resources"));
+        assertEquals("The next page should start after the removed resource",
+                UriBuilder.fromUri(REQUEST_URI).replaceQueryParam("after", BASE_URI + "/b").build().toString(),
+                page.get("next"));
+        verify(nodeService, never()).find(session, "/b");
+        verify(session).logout();
+    }
+
+    @Test
+    public void testGetNoProvider() throws RepositoryException {
+        setField(accessRolesPrincipals, "accessRolesProvider", null);
+
+        assertEquals(404, accessRolesPrincipals.getResources("user", null, 2).getStatus());
+        verify(session).logout();
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void testGetBadLimit() throws RepositoryException {
+        try {
+            accessRolesPrincipals.getResources("user", null, AccessRolesPrincipals.MAX_LIMIT + 1);
+        } finally {
+            verify(accessRolesProvider, never()).findPathsForPrincipal(anyString(), any(Path.class), anyInt(),
+                    any(Session.class));
+            verify(session).logout();
+        }
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void testGetAfterOutsideRepository() throws RepositoryException {
+        try {
+            accessRolesPrincipals.getResources("user", "/a", 2);
+        } finally {
+            verify(accessRolesProvider, never()).findPathsForPrincipal(anyString(), any(Path.class), anyInt(),
+                    any(Session.class));
+            verify(session).logout();
+        }
+    }
+
+    @Test
+    public void testChangePrincipal() {
+        final PrincipalChangeJobs.Job job = new PrincipalChangeJobs.Job(() -> session, "admin",
+                (s, jcrPath) -> jcrPath, accessRolesProvider, "user", "member", 50);
+        when(principalChangeJobs.submit(eq(session), any(UriBuilder.class),
+                eq(accessRolesProvider), eq("user"), eq("member"), eq(50))).thenReturn(job);
+        when(uriInfo.getBaseUriBuilder()).thenReturn(UriBuilder.fromUri("http://localhost/rest/"));
+
+        final Response response = accessRolesPrincipals.changePrincipal("user", "member", 50);
+
+        assertEquals(202, response.getStatus());
+        assertEquals("http://localhost/rest/fcr:accessroles/jobs/" + job.getId(),
+                response.getLocation().toString());
+        assertEquals(job.toMap(), response.getEntity());
+        // the job opens a session of its own
+        verify(session).logout();
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void testChangePrincipalToItself() {
+        try {
+            accessRolesPrincipals.changePrincipal("user", "user", 50);
+        } finally {
+            verify(principalChangeJobs, never()).submit(any(Session.class), any(UriBuilder.class),
+                    any(AccessRolesProvider.class), anyString(), anyString(), anyInt());
+            verify(session).logout();
+        }
+    }
+
+    private Path path(final String jcrPath) throws RepositoryException {
+        return AccessRolesIndex.toPath(jcrPath, session);
+    }
+
+    /**
+     * Maps resources to URIs under {@link #BASE_URI} and back.
+     */
+    private static class StubTranslator extends IdentifierConverter<Resource, FedoraResource> {
+
+        @Override
+        public boolean inDomain(final Resource resource) {
+            return resource.getURI().startsWith(BASE_URI + "/");
+        }
+
+        @Override
+        public Resource toDomain(final String path) {
+            return createResource(BASE_URI + path);
+        }
+
+        @Override
+        public String asString(final Resource resource) {
+            return resource.getURI().substring(BASE_URI.length());
+        }
+
+        @Override
+        protected FedoraResource doForward(final Resource resource) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected Resource doBackward(final FedoraResource resource) {
+            return toDomain(resource.getPath());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * Tests the methods of {@link AccessRolesProvider} that a provider need not implement.
+ *
+ * @author agent
+ */
+public class AccessRolesProviderDefaultsTest {
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private Node root;
+
+    @Mock
+    private Node a;
+
+    @Mock
+    private Node b;
+
+    private final Map<Node, Map<String, Collection<String>>> acls = new HashMap<>();
+
+    private final Map<Node, Map<String, Set<String>>> posted = new HashMap<>();
+
+    private final AccessRolesProvider provider = new AccessRolesProvider() {
+
+        @Override
+        public Map<String, Collection<String>> getRoles(final Node node, final boolean effective) {
+            return acls.get(node);
+        }
+
+        @Override
+        public void postRoles(final Node node, final Map<String, Set<String>> data) {
+            posted.put(node, data);
+        }
+
+        @Override
+        public void deleteRoles(final Node node) {
+            acls.remove(node);
+        }
+
+        @Override
+        public Map<String, Collection<String>> findRolesForPath(final Path absPath, final Session s) {
+            return acls.get(a);
+        }
+
+        @Override
+        public List<Path> findPathsForPrincipal(final String principal, final Path after, final int limit,
+                final Session s) {
+            return emptyList();
+        }
+    };
+
+    @Before
+    public void setUp() throws RepositoryException {
+        initMocks(this);
+        when(session.getRootNode()).thenReturn(root);
+        when(session.nodeExists("/")).thenReturn(true);
+        when(session.getNode("/")).thenReturn(root);
+        when(root.getPath()).thenReturn("/");
+        when(a.getPath()).thenReturn("/a");
+        when(b.getPath()).thenReturn("/a/b");
+        children(root, a);
+        children(a, b);
+        children(b);
+        acls.put(a, singletonMap("user", asList("reader")));
+        acls.put(b, singletonMap("other", asList("writer")));
+    }
+
+    @Test
+    public void testGetAcl() {
+        assertEquals(singletonMap("user", asList("reader")), provider.getAcl(a, false).toMap());
+        assertNull(provider.getAcl(root, false));
+    }
+
+    @Test
+    public void testPatchRoles() throws RepositoryException {
+        provider.patchRoles(a, singletonMap("member", set("writer")), singletonMap("user", set("reader")));
+
+        assertEquals(singletonMap("member", set("writer")), posted.get(a));
+    }
+
+    @Test
+    public void testFindAclForPath() throws RepositoryException {
+        assertEquals(singletonMap("user", asList("reader")), provider.findAclForPath(path("/a/c"), session).toMap());
+        acls.remove(a);
+        assertSame(EffectiveAcl.EMPTY, provider.findAclForPath(path("/a/c"), session));
+        assertNull(provider.findIndexedAclForPath(path("/a/c")));
+    }
+
+    @Test
+    public void testMigrateStorage() throws RepositoryException {
+        assertEquals(0, provider.migrateStorage(session, 10));
+        assertEquals(emptyMap(), posted);
+    }
+
+    @Test
+    public void testFindAclsInSubtree() throws RepositoryException {
+        final Map<Path, EffectiveAcl> found = provider.findAclsInSubtree(path("/"), session);
+
+        assertEquals(2, found.size());
+        assertEquals(singletonMap("other", asList("writer")), found.get(path("/a/b")).toMap());
+    }
+
+    private Path path(final String jcrPath) throws RepositoryException {
+        return AccessRolesIndex.toPath(jcrPath, session);
+    }
+
+    private static Set<String> set(final String... roles) {
+        return new LinkedHashSet<>(asList(roles));
+    }
+
+    private static void children(final Node parent, final Node... children) throws RepositoryException {
+        when(parent.getNodes()).thenAnswer(invocation -> {
+            final Iterator<Node> remaining = asList(children).iterator();
+            final NodeIterator nodes = mock(NodeIterator.class);
+            when(nodes.hasNext()).thenAnswer(i -> remaining.hasNext());
+            when(nodes.nextNode()).thenAnswer(i -> remaining.next());
+            return nodes;
+        });
+    }
+}
@@ -17,18 +17,32 @@
  */
 package org.fcrepo.auth.roles.common;
 
+import static org.fcrepo.auth.roles.common.Constants.JcrName.Assignment;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.Rbacl;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.grant;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.principal;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.rbacl;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.rbaclAssignable;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.role;
+import static org.fcrepo.http.commons.test.util.TestHelpers.setField;
 import static org.fcrepo.kernel.modeshape.testutilities.TestNodeIterator.nodeIterator;
+import static java.util.Arrays.asList;
+import static javax.jcr.observation.Event.NODE_ADDED;
+import static javax.jcr.observation.Event.NODE_MOVED;
+import static javax.jcr.observation.Event.NODE_REMOVED;
+import static javax.jcr.observation.Event.PROPERTY_ADDED;
+import static javax.jcr.observation.Event.PROPERTY_CHANGED;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -36,9 +50,14 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -50,10 +69,23 @@ import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.Workspace;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
 
 import org.fcrepo.auth.roles.common.Constants.JcrName;
+import org.fcrepo.http.commons.session.SessionFactory;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.modeshape.jcr.value.Path;
 
@@ -78,6 +110,12 @@ public class AccessRolesProviderTest {
     @Mock
     private Property principalProperty1;
 
+    @Mock
+    private Session observationSession;
+
+    @Mock
+    private Node aclNode;
+
     private NodeIterator rbaclIterator;
 
     private AccessRolesProvider provider;
@@ -489,6 +527,7 @@ public class AccessRolesProviderTest {
         when(node.hasNode(eq(rbacl.getQualified()))).thenReturn(true);
 
         final Node aclNode = mock(Node.class);
+        when(aclNode.hasNodes()).thenReturn(true);
         when(aclNode.getNodes()).thenReturn(rbaclIterator);
         when(node.getNode(eq(rbacl.getQualified())))
                 .thenReturn(aclNode);
@@ -504,6 +543,125 @@ public class AccessRolesProviderTest {
         verify(node, never()).addNode(anyString(), anyString());
     }
 
+    @Test
+    public void testPatchRolesTouchesOnlyNamedPrincipals() throws RepositoryException {
+        final Node principalNode2 = mock(Node.class);
+        setupPrincipalNode(principalNode2, mock(Property.class), "other", "reader");
+        final Node aclNode = mock(Node.class);
+        when(aclNode.getNodes()).thenReturn(nodeIterator(principalNode1, principalNode2));
+        when(node.hasNode(eq(rbacl.getQualified()))).thenReturn(true);
+        when(node.getNode(eq(rbacl.getQualified()))).thenReturn(aclNode);
+        final Node assignNode = mock(Node.class);
+        when(aclNode.addNode(anyString(), anyString())).thenReturn(assignNode);
+
+        final Map<String, Set<String>> additions = new HashMap<>();
+        additions.put("principal", new HashSet<>(asList("writer")));
+        additions.put("newcomer", new HashSet<>(asList("reader")));
+        provider.patchRoles(node, additions, new HashMap<>());
+
+        verify(principalNode1).setProperty(eq(role.getQualified()), eq(new String[] {"role", "writer"}));
+        verify(assignNode).setProperty(eq(principal.getQualified()), eq("newcomer"));
+        verify(assignNode).setProperty(eq(role.getQualified()), eq(new String[] {"reader"}));
+        verify(principalNode2, never()).setProperty(anyString(), any(String[].class));
+        verify(principalNode2, never()).remove();
+    }
+
+    @Test
+    public void testPatchRolesRemovesEmptiedAssignment() throws RepositoryException {
+        final Node aclNode = mock(Node.class);
+        when(aclNode.getNodes()).thenReturn(rbaclIterator);
+        when(node.isNodeType(rbaclAssignable.getQualified())).thenReturn(true);
+        when(node.hasNode(eq(rbacl.getQualified()))).thenReturn(true);
+        when(node.getNode(eq(rbacl.getQualified()))).thenReturn(aclNode);
+
+        final Map<String, Set<String>> removals = new HashMap<>();
+        removals.put("principal", new HashSet<>(asList("role")));
+        provider.patchRoles(node, new HashMap<>(), removals);
+
+        verify(node, never()).addMixin(anyString());
+        verify(principalNode1).remove();
+        verify(aclNode, never()).addNode(anyString(), anyString());
+    }
+
+    @Test
+    public void testPatchRolesUnchanged() throws RepositoryException {
+        final Node aclNode = mock(Node.class);
+        when(aclNode.getNodes()).thenReturn(rbaclIterator);
+        when(node.hasNode(eq(rbacl.getQualified()))).thenReturn(true);
+        when(node.getNode(eq(rbacl.getQualified()))).thenReturn(aclNode);
+
+        final Map<String, Set<String>> additions = new HashMap<>();
+        additions.put("principal", new HashSet<>(asList("role")));
+        provider.patchRoles(node, additions, new HashMap<>());
+
+        verify(principalNode1, never()).setProperty(anyString(), any(String[].class));
+        verify(principalNode1, never()).remove();
+    }
+
+    @Test
+    public void testPostRolesToProperty() throws RepositoryException {
+        setField(provider, "compactStorage", true);
+        final Map<String, Set<String>> data = new LinkedHashMap<>();
+        data.put("principal", new LinkedHashSet<>(asList("reader", "writer")));
+        data.put("other", new LinkedHashSet<>(asList("admin")));
+        final Node aclNode = mock(Node.class);
+        when(node.addNode(anyString(), anyString())).thenReturn(aclNode);
+
+        provider.postRoles(node, data);
+
+        verify(aclNode).setProperty(eq(grant.getQualified()),
+                eq(new String[] {"principal\u001freader\u001fwriter", "other\u001fadmin"}));
+        verify(aclNode, never()).addNode(anyString(), anyString());
+    }
+
+    @Test
+    public void testGetRolesFromProperty() throws RepositoryException {
+        when(node.isNodeType(rbaclAssignable.getQualified())).thenReturn(true);
+        when(node.getNode(rbacl.getQualified())).thenReturn(rbaclNode);
+        when(rbaclNode.getNodes()).thenReturn(nodeIterator());
+        when(rbaclNode.hasProperty(grant.getQualified())).thenReturn(true);
+        final Property grants = mock(Property.class);
+        final Value value = mock(Value.class);
+        when(value.getString()).thenReturn("principal\u001freader\u001fwriter");
+        when(grants.getValues()).thenReturn(new Value[] {value});
+        when(rbaclNode.getProperty(grant.getQualified())).thenReturn(grants);
+
+        final Map<String, Collection<String>> roles = provider.getRoles(node, false);
+
+        assertEquals(1, roles.size());
+        assertEquals(new HashSet<>(asList("reader", "writer")), new HashSet<>(roles.get("principal")));
+    }
+
+    @Test
+    public void testMigrateStorageToProperty() throws RepositoryException {
+        setField(provider, "compactStorage", true);
+        final Node root = mock(Node.class);
+        when(session.getRootNode()).thenReturn(root);
+        final Workspace workspace = mock(Workspace.class);
+        final QueryManager queryManager = mock(QueryManager.class);
+        final Query query = mock(Query.class);
+        final QueryResult result = mock(QueryResult.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), anyString())).thenReturn(query);
+        when(query.execute()).thenReturn(result);
+        when(result.getNodes()).thenReturn(nodeIterator(node));
+        when(node.isNodeType(rbaclAssignable.getQualified())).thenReturn(true);
+        when(node.hasNode(rbacl.getQualified())).thenReturn(true);
+        when(node.getNode(rbacl.getQualified())).thenReturn(rbaclNode);
+        when(rbaclNode.hasNodes()).thenReturn(true);
+        when(rbaclNode.getNodes()).thenReturn(nodeIterator(principalNode1), nodeIterator(principalNode1));
+        final Value value = mock(Value.class);
+        when(value.getString()).thenReturn("role");
+        when(principalNode1.getProperty(role.getQualified()).getValues()).thenReturn(new Value[] {value});
+
+        assertEquals(1, provider.migrateStorage(session, 10));
+
+        verify(principalNode1).remove();
+        verify(rbaclNode).setProperty(eq(grant.getQualified()), eq(new String[] {"principal\u001frole"}));
+        verify(session).save();
+    }
+
     @Test
     public void testDeleteRolesNonAssignable() throws RepositoryException {
 
@@ -582,6 +740,7 @@ public class AccessRolesProviderTest {
         final String pathString = "path";
         when(path.getString()).thenReturn(pathString);
 
+        when(session.nodeExists(eq(pathString))).thenReturn(true);
         when(session.getNode(eq(pathString))).thenReturn(node);
 
         // Not assignable, but with parent that is assignable
@@ -613,7 +772,7 @@ public class AccessRolesProviderTest {
         final String pathString = "path";
         when(path.getString()).thenReturn(pathString);
 
-        when(session.getNode(eq(pathString))).thenThrow(new PathNotFoundException());
+        when(session.nodeExists(eq(pathString))).thenReturn(false);
 
         // Paths parent, the root, is found and is assignable
         final Path rootPath = mock(Path.class);
@@ -630,9 +789,10 @@ public class AccessRolesProviderTest {
         final Map<String, Collection<String>> data =
                 provider.findRolesForPath(path, session);
 
-        // Verify lookup of node by path
+        // Verify the path was probed rather than read
         verify(session).getRootNode();
-        verify(session).getNode(eq(pathString));
+        verify(session).nodeExists(eq(pathString));
+        verify(session, never()).getNode(eq(pathString));
 
         assertEquals("One principal should be retrieved", 1, data.size());
     }
@@ -650,27 +810,402 @@ public class AccessRolesProviderTest {
         }
     }
 
-    @Test(expected = NullPointerException.class)
-    public void testFindRolesForPathAllNotFound() throws RepositoryException {
-
-        when(session.getRootNode()).thenThrow(new PathNotFoundException());
-        when(session.getNode(anyString())).thenThrow(
-                new PathNotFoundException());
+    @Test
+    public void testFindRolesForPathSeveralLevelsNotFound() throws RepositoryException {
 
         final Path path1 = mock(Path.class);
         final Path path2 = mock(Path.class);
+        when(path1.getString()).thenReturn("/a");
+        when(path2.getString()).thenReturn("/a/b");
 
         final Path rootPath = mock(Path.class);
         when(rootPath.isRoot()).thenReturn(true);
         when(path1.getParent()).thenReturn(rootPath);
         when(path2.getParent()).thenReturn(path1);
 
+        when(session.getRootNode()).thenReturn(node);
+        when(node.isNodeType(eq(JcrName.rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+
+        final Map<String, Collection<String>> data = provider.findRolesForPath(path2, session);
+
+        assertEquals("One principal should be retrieved", 1, data.size());
+        // each missing level is probed once, and never read
+        verify(session).nodeExists("/a/b");
+        verify(session).nodeExists("/a");
+        verify(session, never()).getNode(anyString());
+    }
+
+    @Test
+    public void testFindRolesForPathNodeRemovedWhileProbing() throws RepositoryException {
+
+        final Path path = mock(Path.class);
+        when(path.getString()).thenReturn("/a");
+        final Path rootPath = mock(Path.class);
+        when(rootPath.isRoot()).thenReturn(true);
+        when(path.getParent()).thenReturn(rootPath);
+
+        when(session.nodeExists("/a")).thenReturn(true);
+        when(session.getNode("/a")).thenThrow(new PathNotFoundException());
+        when(session.getRootNode()).thenReturn(node);
+        when(node.isNodeType(eq(JcrName.rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+
+        assertEquals("One principal should be retrieved", 1, provider.findRolesForPath(path, session).size());
+    }
+
+    @Test
+    public void testFindRolesForPathFromIndex() throws RepositoryException {
+        enableIndex();
+
+        final Map<String, Collection<String>> data =
+                provider.findRolesForPath(AccessRolesIndex.toPath("/some/path", session), session);
+
+        assertEquals("One principal should be retrieved", 1, data.size());
+        assertTrue("Data did not contain principal", data.containsKey("principal"));
+        // The index answers without touching the repository
+        verify(session, never()).getNode(anyString());
+        verify(session, never()).getRootNode();
+    }
+
+    @Test
+    public void testGetAclReadsNodeNotIndex() throws RepositoryException {
+        enableIndex();
+        // the index holds the persisted ACL of /some, which the user's session has deleted but not yet saved
+        when(node.getPath()).thenReturn("/some");
+
+        assertNull("The node's own state should be read, not the index", provider.getAcl(node, false));
+        verify(node).isNodeType(rbaclAssignable.getQualified());
+    }
+
+    @Test
+    public void testFindPathsForPrincipalFromIndex() throws RepositoryException {
+        enableIndex();
+        when(session.hasPermission("/some/authz:rbacl", "read")).thenReturn(true);
+
+        assertEquals(asList(AccessRolesIndex.toPath("/some", session)),
+                provider.findPathsForPrincipal("principal", null, 10, session));
+        assertTrue(provider.findPathsForPrincipal("nobody", null, 10, session).isEmpty());
+        assertTrue("Nothing should follow the last path",
+                provider.findPathsForPrincipal("principal", AccessRolesIndex.toPath("/some", session), 10, session)
+                        .isEmpty());
+    }
+
+    @Test
+    public void testFindPathsForPrincipalFromIndexUnreadable() throws RepositoryException {
+        enableIndex();
+        when(session.hasPermission("/some", "read")).thenReturn(true);
+        when(session.hasPermission("/some/authz:rbacl", "read")).thenReturn(false);
+
+        assertTrue("Paths whose ACL the session cannot read should be left out",
+                provider.findPathsForPrincipal("principal", null, 10, session).isEmpty());
+    }
+
+    @Test
+    public void testFindPathsForPrincipalFromQuery() throws RepositoryException {
+        final Workspace workspace = mock(Workspace.class);
+        final QueryManager queryManager = mock(QueryManager.class);
+        final ValueFactory valueFactory = mock(ValueFactory.class);
+        final Query assignments = mock(Query.class);
+        final Query grants = mock(Query.class);
+        when(session.getNamespaceURI(JcrName.NS_PREFIX)).thenReturn(JcrName.NS_URI);
+        when(session.getNamespacePrefix(JcrName.NS_URI)).thenReturn(JcrName.NS_PREFIX);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(session.getValueFactory()).thenReturn(valueFactory);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(contains(Assignment.getQualified()), eq(Query.JCR_SQL2))).thenReturn(assignments);
+        when(queryManager.createQuery(contains(grant.getQualified()), eq(Query.JCR_SQL2))).thenReturn(grants);
+        when(assignments.execute()).thenAnswer(invocation -> rows("/b/authz:rbacl/authz:assignment[2]"));
+        when(grants.execute()).thenAnswer(invocation -> rows("/a/authz:rbacl", "/c/authz:rbacl"));
+        when(session.hasPermission("/a/authz:rbacl", "read")).thenReturn(true);
+        when(session.hasPermission("/b/authz:rbacl", "read")).thenReturn(true);
+
+        assertEquals("Paths should come in order, leaving out ACLs the session cannot read",
+                asList(AccessRolesIndex.toPath("/a", session), AccessRolesIndex.toPath("/b", session)),
+                provider.findPathsForPrincipal("principal", null, 10, session));
+        assertEquals(asList(AccessRolesIndex.toPath("/b", session)),
+                provider.findPathsForPrincipal("principal", AccessRolesIndex.toPath("/a", session), 1, session));
+        verify(valueFactory, times(2)).createValue("principal\u001f%");
+        verify(session, never()).getNode(anyString());
+    }
+
+    @Test
+    public void testFindPathsForPrincipalFromQueryEscapesPattern() throws RepositoryException {
+        final Workspace workspace = mock(Workspace.class);
+        final QueryManager queryManager = mock(QueryManager.class);
+        final ValueFactory valueFactory = mock(ValueFactory.class);
+        final Query query = mock(Query.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(session.getValueFactory()).thenReturn(valueFactory);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), eq(Query.JCR_SQL2))).thenReturn(query);
+        when(query.execute()).thenAnswer(invocation -> rows());
+
+        assertTrue(provider.findPathsForPrincipal("100%_\\sure", null, 10, session).isEmpty());
+        verify(valueFactory).createValue("100\\%\\_\\\\sure\u001f%");
+    }
+
+    private static QueryResult rows(final String... paths) throws RepositoryException {
+        final List<Row> rows = new ArrayList<>();
+        for (final String path : paths) {
+            final Row row = mock(Row.class);
+            when(row.getPath()).thenReturn(path);
+            rows.add(row);
+        }
+        final Iterator<Row> iterator = rows.iterator();
+        final RowIterator rowIterator = mock(RowIterator.class);
+        when(rowIterator.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(rowIterator.nextRow()).thenAnswer(invocation -> iterator.next());
+        final QueryResult result = mock(QueryResult.class);
+        when(result.getRows()).thenReturn(rowIterator);
+        return result;
+    }
+
+    @Test
+    public void testFindRolesForPathFromIndexNoAcl() throws RepositoryException {
+        enableIndex();
+
+        assertTrue("Paths without an ACL-bearing ancestor should have the default access roles",
+                AccessRolesProvider.DEFAULT_ACCESS_ROLES ==
+                        provider.findRolesForPath(AccessRolesIndex.toPath("/other/path", session), session));
+    }
+
+    @Test
+    public void testFindRolesForPathFromIndexAfterMixinRemoved() throws RepositoryException {
+        final EventListener listener = enableIndex();
+
+        when(aclNode.isNodeType(anyString())).thenReturn(false);
+        listener.onEvent(events(event(PROPERTY_CHANGED, "/some/jcr:mixinTypes")));
+
+        assertTrue("Role data should be gone once the ACL is removed",
+                AccessRolesProvider.DEFAULT_ACCESS_ROLES ==
+                        provider.findRolesForPath(AccessRolesIndex.toPath("/some/path", session), session));
+    }
+
+    @Test
+    public void testFindRolesForPathFromIndexAfterAssignmentChanged() throws RepositoryException {
+        final EventListener listener = enableIndex();
+
+        final Node principalNode2 = mock(Node.class);
+        setupPrincipalNode(principalNode2, mock(Property.class), "principal2", "role");
+        when(rbaclNode.getNodes()).thenReturn(nodeIterator(principalNode1, principalNode2));
+        listener.onEvent(events(event(NODE_ADDED, "/some/authz:rbacl/authz:assignment[2]"),
+                event(PROPERTY_ADDED, "/some/authz:rbacl/authz:assignment[2]/authz:role")));
+
+        assertEquals("Both principals should be retrieved", 2,
+                provider.findRolesForPath(AccessRolesIndex.toPath("/some/path", session), session).size());
+        // both events concern the same ACL, which should only be read once
+        verify(rbaclNode, times(2)).getNodes();
+    }
+
+    @Test
+    public void testFindRolesForPathFromIndexAfterAncestorRemoved() throws RepositoryException {
+        final EventListener listener = enableIndex();
+
+        when(observationSession.nodeExists("/some")).thenReturn(false);
+        listener.onEvent(events(event(NODE_REMOVED, "/some")));
+
+        assertTrue("Role data should be gone once the ACL-bearing node is removed",
+                AccessRolesProvider.DEFAULT_ACCESS_ROLES ==
+                        provider.findRolesForPath(AccessRolesIndex.toPath("/some/path", session), session));
+    }
+
+    @Test
+    public void testReorderLeavesIndex() throws RepositoryException {
+        final EventListener listener = enableIndex();
+
+        final Event reorder = event(NODE_MOVED, "/some");
+        final Map<String, String> info = new HashMap<>();
+        info.put("srcChildRelPath", "some");
+        info.put("destChildRelPath", "other");
+        when(reorder.getInfo()).thenReturn(info);
+        listener.onEvent(events(reorder));
+
+        assertEquals("One principal should be retrieved", 1,
+                provider.findRolesForPath(AccessRolesIndex.toPath("/some/path", session), session).size());
+        verify(observationSession, never()).refresh(anyBoolean());
+    }
+
+    @Test
+    public void testPostRolesLeavesIndexWhenSaveFails() throws RepositoryException {
+        enableIndex();
+        postRolesToChild();
+        doThrow(new RepositoryException("conflict")).when(session).save();
+
         try {
-            provider.findRolesForPath(path2, session);
-        } finally {
-            // It should have checked each node before NPE
-            verify(session).getRootNode();
-            verify(session, times(2)).getNode(anyString());
+            session.save();
+            fail("The save should have failed");
+        } catch (final RepositoryException e) {
+            session.refresh(false);
+        }
+
+        final Map<String, Collection<String>> roles =
+                provider.findRolesForPath(AccessRolesIndex.toPath("/some/path/child", session), session);
+        assertEquals("Roles that were never stored should not be indexed", 1, roles.size());
+        assertTrue("Data did not contain principal", roles.containsKey("principal"));
+        assertTrue(provider.findPathsForPrincipal("principal2", null, 10, session).isEmpty());
+    }
+
+    @Test
+    public void testPostRolesIndexedOncePersisted() throws RepositoryException {
+        final EventListener listener = enableIndex();
+        postRolesToChild();
+
+        final Node persisted = mock(Node.class);
+        final Node persistedAcl = mock(Node.class);
+        final Node assign = mock(Node.class);
+        setupPrincipalNode(assign, mock(Property.class), "principal2", "role");
+        when(persistedAcl.getNodes()).thenReturn(nodeIterator(assign));
+        when(persisted.getPath()).thenReturn("/some/path");
+        when(persisted.getSession()).thenReturn(observationSession);
+        when(persisted.isNodeType(anyString())).thenReturn(true);
+        when(persisted.getNode(anyString())).thenReturn(persistedAcl);
+        when(observationSession.nodeExists("/some/path")).thenReturn(true);
+        when(observationSession.getNode("/some/path")).thenReturn(persisted);
+        listener.onEvent(events(event(NODE_ADDED, "/some/path/authz:rbacl")));
+
+        final Map<String, Collection<String>> roles =
+                provider.findRolesForPath(AccessRolesIndex.toPath("/some/path/child", session), session);
+        assertEquals("Only the nearest ACL should be retrieved", 1, roles.size());
+        assertTrue("Data did not contain principal2", roles.containsKey("principal2"));
+    }
+
+    private void postRolesToChild() throws RepositoryException {
+        when(node.getPath()).thenReturn("/some/path");
+        final Node acl = mock(Node.class);
+        when(node.addNode(anyString(), anyString())).thenReturn(acl);
+        when(acl.addNode(anyString(), anyString())).thenReturn(mock(Node.class));
+
+        final Map<String, Set<String>> data = new HashMap<>();
+        data.put("principal2", new HashSet<>(asList("role")));
+        provider.postRoles(node, data);
+    }
+
+    @Test
+    public void testDeleteRolesIndexedOncePersisted() throws RepositoryException {
+        final EventListener listener = enableIndex();
+        when(node.getPath()).thenReturn("/some");
+        when(node.isNodeType(eq(rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(eq(rbacl.getQualified()))).thenReturn(rbaclNode);
+        when(session.hasPermission("/some/authz:rbacl", "read")).thenReturn(true);
+
+        provider.deleteRoles(node);
+
+        assertEquals("An unsaved deletion should not be indexed", 1,
+                provider.findRolesForPath(AccessRolesIndex.toPath("/some/path", session), session).size());
+
+        when(aclNode.isNodeType(anyString())).thenReturn(false);
+        listener.onEvent(events(event(PROPERTY_CHANGED, "/some/jcr:mixinTypes")));
+
+        assertTrue("Role data should be gone once the deletion is persisted",
+                AccessRolesProvider.DEFAULT_ACCESS_ROLES ==
+                        provider.findRolesForPath(AccessRolesIndex.toPath("/some/path", session), session));
+        assertTrue("The ACL should no longer be found by principal",
+                provider.findPathsForPrincipal("principal", null, 10, session).isEmpty());
+    }
+
+    @Test
+    public void testFindAclsInSubtreeFromIndex() throws RepositoryException {
+        enableIndex();
+
+        final Map<Path, EffectiveAcl> acls = provider.findAclsInSubtree(AccessRolesIndex.toPath("/", session), session);
+
+        assertEquals("One ACL should be found", 1, acls.size());
+        assertTrue("Data did not contain principal",
+                acls.get(AccessRolesIndex.toPath("/some", session)).rolesOf("principal") != 0);
+        verify(session, never()).getNode(anyString());
+    }
+
+    @Test
+    public void testFindAclsInSubtreeFromQuery() throws RepositoryException {
+        final Workspace workspace = mock(Workspace.class);
+        final QueryManager queryManager = mock(QueryManager.class);
+        final Query query = mock(Query.class);
+        final QueryResult result = mock(QueryResult.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), eq(Query.JCR_SQL2))).thenReturn(query);
+        when(query.execute()).thenReturn(result);
+        when(result.getNodes()).thenReturn(nodeIterator(aclNode));
+
+        when(session.nodeExists("/some")).thenReturn(true);
+        when(session.getNode("/some")).thenReturn(node);
+        when(node.getPath()).thenReturn("/some");
+        when(aclNode.getPath()).thenReturn("/some/child");
+        when(aclNode.getSession()).thenReturn(session);
+        when(aclNode.isNodeType(anyString())).thenReturn(true);
+        when(aclNode.getNode(anyString())).thenReturn(rbaclNode);
+
+        final Map<Path, EffectiveAcl> acls =
+                provider.findAclsInSubtree(AccessRolesIndex.toPath("/some", session), session);
+
+        assertEquals("Only the descendant carrying an ACL should be found", 1, acls.size());
+        assertTrue("Data did not contain principal",
+                acls.get(AccessRolesIndex.toPath("/some/child", session)).rolesOf("principal") != 0);
+        verify(queryManager).createQuery(eq(String.format(
+                "SELECT [jcr:path] FROM [%s] AS n WHERE ISDESCENDANTNODE(n, '/some')",
+                rbaclAssignable.getQualified())), eq(Query.JCR_SQL2));
+    }
+
+    @Test
+    public void testFindAclsInSubtreeMissingPath() throws RepositoryException {
+        assertTrue("Nothing should be found beneath a missing path",
+                provider.findAclsInSubtree(AccessRolesIndex.toPath("/missing", session), session).isEmpty());
+    }
+
+    private EventListener enableIndex() throws RepositoryException {
+        final SessionFactory sessionFactory = mock(SessionFactory.class);
+        final Workspace workspace = mock(Workspace.class);
+        final ObservationManager observationManager = mock(ObservationManager.class);
+        final QueryManager queryManager = mock(QueryManager.class);
+        final Query query = mock(Query.class);
+        final QueryResult result = mock(QueryResult.class);
+        final Node rootNode = mock(Node.class);
+
+        when(sessionFactory.getInternalSession()).thenReturn(observationSession);
+        when(observationSession.getWorkspace()).thenReturn(workspace);
+        when(workspace.getObservationManager()).thenReturn(observationManager);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), eq(Query.JCR_SQL2))).thenReturn(query);
+        when(query.execute()).thenReturn(result);
+        when(result.getNodes()).thenReturn(nodeIterator(aclNode));
+
+        when(observationSession.nodeExists("/")).thenReturn(true);
+        when(observationSession.getNode("/")).thenReturn(rootNode);
+        when(rootNode.getPath()).thenReturn("/");
+        when(rootNode.getSession()).thenReturn(observationSession);
+
+        when(observationSession.nodeExists("/some")).thenReturn(true);
+        when(observationSession.getNode("/some")).thenReturn(aclNode);
+        when(aclNode.getPath()).thenReturn("/some");
+        when(aclNode.getSession()).thenReturn(observationSession);
+        when(aclNode.isNodeType(anyString())).thenReturn(true);
+        when(aclNode.getNode(anyString())).thenReturn(rbaclNode);
+
+        setField(provider, "sessionFactory", sessionFactory);
+        ((RbAclAccessRolesProvider) provider).init();
+
+        final ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(observationManager).addEventListener(listener.capture(), anyInt(), eq("/"), anyBoolean(),
+                any(String[].class), any(String[].class), anyBoolean());
+        return listener.getValue();
+    }
+    private static Event event(final int type, final String path) throws RepositoryException {
+        final Event event = mock(Event.class);
+        when(event.getType()).thenReturn(type);
+        when(event.getPath()).thenReturn(path);
+        return event;
+    }
+
+    private static EventIterator events(final Event... events) {
+        final EventIterator iterator = mock(EventIterator.class);
+        if (events.length == 1) {
+            when(iterator.hasNext()).thenReturn(true, false);
+            when(iterator.nextEvent()).thenReturn(events[0]);
+        } else {
+            when(iterator.hasNext()).thenReturn(true, true, false);
+            when(iterator.nextEvent()).thenReturn(events[0], events[1]);
         }
+        return iterator;
     }
 }
@@ -20,9 +20,11 @@ package org.fcrepo.auth.roles.common;
 import static org.fcrepo.http.commons.test.util.TestHelpers.mockSession;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -31,8 +33,8 @@ import static org.mockito.MockitoAnnotations.initMocks;
 import static org.springframework.test.util.ReflectionTestUtils.setField;
 
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -42,6 +44,7 @@ import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.PathSegment;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
@@ -72,9 +75,6 @@ public class AccessRolesTest {
     @Mock
     private FedoraResource fedoraResource;
 
-    @Mock
-    private Map<String, Collection<String>> rolesData;
-
     @Mock
     private PathSegment rootPath;
 
@@ -105,7 +105,7 @@ public class AccessRolesTest {
     @Test
     public void testGetNoData() throws RepositoryException {
 
-        when(accessRolesProvider.getRoles(any(Node.class), anyBoolean()))
+        when(accessRolesProvider.getAcl(any(Node.class), anyBoolean()))
                 .thenReturn(null);
 
         final Response response = accessRoles.get(null);
@@ -125,8 +125,9 @@ public class AccessRolesTest {
     @Test
     public void testGetData() throws RepositoryException {
 
-        when(accessRolesProvider.getRoles(any(Node.class), anyBoolean()))
-                .thenReturn(rolesData);
+        final EffectiveAcl acl = EffectiveAcl.of(Collections.singletonMap("principal", Arrays.asList("role")));
+        when(accessRolesProvider.getAcl(any(Node.class), anyBoolean()))
+                .thenReturn(acl);
 
         final Response response = accessRoles.get("");
 
@@ -135,12 +136,62 @@ public class AccessRolesTest {
 
         assertEquals(
                 "Response entity should match the roles data assigned to the node",
-                response.getEntity(), rolesData);
+                Collections.singletonMap("principal", Collections.singleton("role")), response.getEntity());
+        assertEquals("Response should be tagged with the ACL version",
+                new EntityTag(acl.version()), response.getEntityTag());
 
         verify(session).logout();
 
         // Ensure that it attempted to retrieve roles
-        verify(accessRolesProvider).getRoles(any(Node.class), anyBoolean());
+        verify(accessRolesProvider).getAcl(any(Node.class), anyBoolean());
+    }
+
+    @Test
+    public void testGetNotModified() throws RepositoryException {
+        final EffectiveAcl acl = EffectiveAcl.of(Collections.singletonMap("principal", Arrays.asList("role")));
+        when(accessRolesProvider.getAcl(any(Node.class), anyBoolean())).thenReturn(acl);
+        when(request.evaluatePreconditions(new EntityTag(acl.version())))
+                .thenReturn(Response.notModified());
+
+        final Response response = accessRoles.get("");
+
+        assertEquals("Expecting NOT MODIFIED response", 304, response.getStatus());
+        assertNull("Response entity should not have been set", response.getEntity());
+        verify(accessRolesProvider, never()).getRoles(any(Node.class), anyBoolean());
+    }
+
+    @Test
+    public void testPostPreconditionFailed() throws RepositoryException {
+        final EffectiveAcl acl = EffectiveAcl.of(Collections.singletonMap("principal", Arrays.asList("role")));
+        when(accessRolesProvider.getAcl(any(Node.class), eq(false))).thenReturn(acl);
+        when(request.evaluatePreconditions(new EntityTag(acl.version())))
+                .thenReturn(Response.status(Response.Status.PRECONDITION_FAILED));
+
+        try {
+            accessRoles.post(Collections.singletonMap("principal", Collections.singleton("role")));
+            fail("Expected the precondition to fail");
+        } catch (final WebApplicationException e) {
+            assertEquals(412, e.getResponse().getStatus());
+        }
+        verify(accessRolesProvider, never()).postRoles(any(Node.class),
+                Matchers.<Map<String, Set<String>>>any());
+        verify(session, never()).save();
+        verify(session).logout();
+    }
+
+    @Test
+    public void testDeletePreconditionFailedWithoutAcl() throws RepositoryException {
+        when(accessRolesProvider.getAcl(any(Node.class), eq(false))).thenReturn(null);
+        when(request.evaluatePreconditions()).thenReturn(Response.status(Response.Status.PRECONDITION_FAILED));
+
+        try {
+            accessRoles.deleteNodeType();
+            fail("Expected the precondition to fail");
+        } catch (final WebApplicationException e) {
+            assertEquals(412, e.getResponse().getStatus());
+        }
+        verify(accessRolesProvider, never()).deleteRoles(any(Node.class));
+        verify(session).logout();
     }
 
     @Test(expected = RepositoryRuntimeException.class)
@@ -154,7 +205,7 @@ public class AccessRolesTest {
         } finally {
             // Verify that session logout occurred and no work happened
             verify(session).logout();
-            verify(accessRolesProvider, never()).getRoles(any(Node.class),
+            verify(accessRolesProvider, never()).getAcl(any(Node.class),
                     anyBoolean());
         }
     }
@@ -232,6 +283,49 @@ public class AccessRolesTest {
         }
     }
 
+    @Test
+    public void testPatchRoles() throws RepositoryException {
+        final Map<String, Map<String, Set<String>>> data = new HashMap<>();
+        data.put("add", Collections.singletonMap("principalName", Collections.singleton("role1")));
+        data.put("remove", Collections.singletonMap("otherPrincipal", Collections.singleton("role2")));
+
+        final Response response = accessRoles.patch(data);
+
+        verify(accessRolesProvider).patchRoles(any(Node.class),
+                eq(Collections.singletonMap("principalName", Collections.singleton("role1"))),
+                eq(Collections.singletonMap("otherPrincipal", Collections.singleton("role2"))));
+        verify(session).save();
+        verify(session).logout();
+        assertEquals("Status code must be NO CONTENT", 204, response.getStatus());
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void testPatchNothing() throws RepositoryException {
+        invalidPatch(new HashMap<>());
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void testPatchAddAndRemoveSameRole() throws RepositoryException {
+        final Map<String, Map<String, Set<String>>> data = new HashMap<>();
+        data.put("add", Collections.singletonMap("principalName", Collections.singleton("role1")));
+        data.put("remove", Collections.singletonMap("principalName", Collections.singleton("role1")));
+
+        invalidPatch(data);
+    }
+
+    private void invalidPatch(final Map<String, Map<String, Set<String>>> data)
+            throws RepositoryException {
+
+        try {
+            accessRoles.patch(data);
+        } finally {
+            verify(accessRolesProvider, never()).patchRoles(any(Node.class),
+                    Matchers.<Map<String, Set<String>>>any(), Matchers.<Map<String, Set<String>>>any());
+            verify(session, never()).save();
+            verify(session).logout();
+        }
+    }
+
     @Test
     public void testApplyNewRoles() throws RepositoryException {
 
@@ -0,0 +1,191 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class EffectiveAclTest {
+
+    @BeforeClass
+    public static void registerRoles() {
+        // role bits are shared by the whole JVM; make sure these have theirs before any test exhausts them
+        for (final String role : asList("reader", "writer", "admin")) {
+            EffectiveAcl.roleBit(role);
+        }
+    }
+
+    @Test
+    public void testResolve() {
+        final Map<String, Collection<String>> assignments = new HashMap<>();
+        assignments.put("a", asList("reader", "writer"));
+        assignments.put("b", asList("admin"));
+        assignments.put("c", asList("reader"));
+        final EffectiveAcl acl = EffectiveAcl.of(assignments);
+
+        final long mask = acl.resolve(principals("a", "b", "d"));
+
+        assertEquals(EffectiveAcl.roleBit("reader") | EffectiveAcl.roleBit("writer") | EffectiveAcl.roleBit("admin"),
+                mask);
+        assertEquals(new HashSet<>(asList("reader", "writer", "admin")), EffectiveAcl.roleNames(mask));
+        assertEquals(new HashSet<>(asList("reader", "writer", "admin")), acl.resolveRoles(principals("a", "b")));
+        assertEquals(0, acl.resolve(principals("d", "e")));
+    }
+
+    @Test
+    public void testLargeAcl() {
+        final Map<String, Collection<String>> assignments = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            assignments.put("principal" + i, asList(i % 2 == 0 ? "reader" : "writer"));
+        }
+        final EffectiveAcl acl = EffectiveAcl.of(assignments);
+
+        assertEquals(1000, acl.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(EffectiveAcl.roleBit(i % 2 == 0 ? "reader" : "writer"), acl.rolesOf("principal" + i));
+        }
+        assertEquals(0, acl.rolesOf("principal1000"));
+    }
+
+    @Test
+    public void testPrincipalWithoutRoles() {
+        final Map<String, Collection<String>> assignments = new HashMap<>();
+        assignments.put("a", emptyList());
+        final EffectiveAcl acl = EffectiveAcl.of(assignments);
+
+        assertEquals(1, acl.size());
+        assertEquals(0, acl.resolve(principals("a")));
+        assertTrue(acl.toMap().get("a").isEmpty());
+    }
+
+    @Test
+    public void testVersion() {
+        final EffectiveAcl acl = EffectiveAcl.builder().assign("a", "reader").assign("a", "writer")
+                .assign("b", "admin").build();
+        final EffectiveAcl same = EffectiveAcl.builder().assign("b", "admin").assign("a", "writer")
+                .assign("a", "reader").build();
+        final EffectiveAcl moved = EffectiveAcl.builder().assign("a", "reader").assign("b", "writer")
+                .assign("a", "admin").build();
+
+        assertEquals(acl.version(), same.version());
+        assertNotEquals(acl.version(), moved.version());
+        assertNotEquals(acl.version(), EffectiveAcl.EMPTY.version());
+        assertEquals(64, acl.version().length());
+    }
+
+    @Test
+    public void testVersionSeparatesNames() {
+        final EffectiveAcl acl = EffectiveAcl.builder().assign("ab", "c").build();
+        final EffectiveAcl joined = EffectiveAcl.builder().assign("a", "bc").build();
+        final EffectiveAcl split = EffectiveAcl.builder().assign("ab", "c").principal("d").build();
+
+        assertNotEquals(acl.version(), joined.version());
+        assertNotEquals(acl.version(), split.version());
+        assertEquals(EffectiveAcl.builder().principal("a").build().version(),
+                EffectiveAcl.builder().principal("a").build().version());
+    }
+
+    @Test
+    public void testToMap() {
+        final Map<String, Collection<String>> assignments = new HashMap<>();
+        assignments.put("a", asList("reader", "writer"));
+        assignments.put("b", asList("admin"));
+
+        final Map<String, Collection<String>> map = EffectiveAcl.of(assignments).toMap();
+
+        assertEquals(2, map.size());
+        assertEquals(new HashSet<>(asList("reader", "writer")), new HashSet<>(map.get("a")));
+        assertEquals(asList("admin"), map.get("b"));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertSame(EffectiveAcl.EMPTY, EffectiveAcl.of(new HashMap<>()));
+        assertSame(AccessRolesProvider.DEFAULT_ACCESS_ROLES, EffectiveAcl.EMPTY.toMap());
+        assertEquals(0, EffectiveAcl.EMPTY.resolve(principals("a")));
+    }
+
+    @Test
+    public void testRolesBeyondBits() {
+        final EffectiveAcl.Builder builder = EffectiveAcl.builder();
+        final List<String> roles = new ArrayList<>();
+        for (int i = 0; i <= EffectiveAcl.ROLE_BITS; i++) {
+            roles.add("testRolesBeyondBits" + i);
+            builder.assign("a", "testRolesBeyondBits" + i);
+        }
+        final EffectiveAcl acl = builder.build();
+
+        assertEquals(EffectiveAcl.OVERFLOW, acl.resolve(principals("a")) & EffectiveAcl.OVERFLOW);
+        assertEquals(new HashSet<>(roles), acl.resolveRoles(principals("a")));
+        assertEquals(new HashSet<>(roles), new HashSet<>(acl.toMap().get("a")));
+    }
+
+    @Test
+    public void testOverflowRolesAreKeptApart() {
+        for (int i = 0; i <= EffectiveAcl.ROLE_BITS; i++) {
+            EffectiveAcl.roleBit("testOverflowRolesAreKeptApart" + i);
+        }
+        final EffectiveAcl acl = EffectiveAcl.builder().assign("a", "overflowA").assign("b", "overflowB")
+                .assign("b", "reader").assign("c", "writer").build();
+
+        assertEquals(EffectiveAcl.OVERFLOW, EffectiveAcl.roleBit("overflowA"));
+        assertEquals(singleton("overflowA"), acl.resolveRoles(principals("a")));
+        assertEquals(new HashSet<>(asList("overflowB", "reader")), acl.resolveRoles(principals("b")));
+        assertEquals(singleton("writer"), acl.resolveRoles(principals("c")));
+        assertEquals(EffectiveAcl.roleBit("writer"), acl.resolve(principals("c")));
+    }
+
+    @Test
+    public void testRoleRegistryIsBounded() {
+        for (int i = 0; i < 2 * EffectiveAcl.ROLE_BITS; i++) {
+            EffectiveAcl.roleBit("testRoleRegistryIsBounded" + i);
+        }
+
+        assertEquals(EffectiveAcl.ROLE_BITS, EffectiveAcl.knownRoles());
+        assertEquals(EffectiveAcl.OVERFLOW, EffectiveAcl.roleBit("testRoleRegistryIsBounded"));
+        assertEquals(EffectiveAcl.ROLE_BITS, EffectiveAcl.knownRoles());
+    }
+
+    private static Set<Principal> principals(final String... names) {
+        final Set<Principal> principals = new HashSet<>();
+        for (final String name : names) {
+            principals.add(() -> name);
+        }
+        return principals;
+    }
+}
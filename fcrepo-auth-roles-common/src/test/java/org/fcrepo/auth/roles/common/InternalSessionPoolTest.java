@@ -0,0 +1,117 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+/**
+ * @author agent
+ */
+public class InternalSessionPoolTest {
+
+    @Mock
+    private SessionFactory sessionFactory;
+
+    @Mock
+    private Session session1;
+
+    @Mock
+    private Session session2;
+
+    private InternalSessionPool pool;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        when(sessionFactory.getInternalSession()).thenReturn(session1, session2);
+        when(session1.isLive()).thenReturn(true);
+        when(session2.isLive()).thenReturn(true);
+        pool = new InternalSessionPool(sessionFactory, 1);
+    }
+
+    @Test
+    public void testReuseRefreshesSession() throws RepositoryException {
+        pool.release(pool.borrow());
+
+        assertSame(session1, pool.borrow());
+        verify(sessionFactory, times(1)).getInternalSession();
+        verify(session1).refresh(false);
+        verify(session1, never()).logout();
+    }
+
+    @Test
+    public void testBorrowOpensSessionWhenEmpty() {
+        assertSame(session1, pool.borrow());
+        assertSame(session2, pool.borrow());
+    }
+
+    @Test
+    public void testReleaseBeyondCapacityLogsOut() {
+        final Session borrowed1 = pool.borrow();
+        final Session borrowed2 = pool.borrow();
+        pool.release(borrowed1);
+        pool.release(borrowed2);
+
+        verify(session1, never()).logout();
+        verify(session2).logout();
+    }
+
+    @Test
+    public void testDeadSessionDiscarded() {
+        pool.release(pool.borrow());
+        when(session1.isLive()).thenReturn(false);
+
+        assertSame(session2, pool.borrow());
+        verify(session1).logout();
+    }
+
+    @Test
+    public void testSessionThatCannotRefreshDiscarded() throws RepositoryException {
+        pool.release(pool.borrow());
+        doThrow(new RepositoryException()).when(session1).refresh(false);
+
+        assertSame(session2, pool.borrow());
+        verify(session1).logout();
+    }
+
+    @Test
+    public void testClose() {
+        final Session borrowed1 = pool.borrow();
+        final Session borrowed2 = pool.borrow();
+        pool.release(borrowed1);
+        pool.close();
+
+        verify(session1).logout();
+        pool.release(borrowed2);
+        verify(session2).logout();
+    }
+}
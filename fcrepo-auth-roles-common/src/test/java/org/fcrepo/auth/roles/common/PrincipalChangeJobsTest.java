@@ -0,0 +1,226 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * @author agent
+ */
+public class PrincipalChangeJobsTest {
+
+    private static final EffectiveAcl ACL = EffectiveAcl.of(singletonMap("user", asList("reader", "writer")));
+
+    private static final Set<String> ROLES = new LinkedHashSet<>(asList("reader", "writer"));
+
+    private static final String CHANGE_ACTIONS = "add_node,set_property,remove";
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private Node nodeA;
+
+    @Mock
+    private Node nodeB;
+
+    private Path pathA;
+
+    private Path pathB;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        initMocks(this);
+        pathA = AccessRolesIndex.toPath("/a", session);
+        pathB = AccessRolesIndex.toPath("/b", session);
+        when(session.hasPermission(anyString(), eq(CHANGE_ACTIONS))).thenReturn(true);
+        when(session.getNode("/a")).thenReturn(nodeA);
+        when(session.getNode("/b")).thenReturn(nodeB);
+        when(accessRolesProvider.getAcl(any(Node.class), eq(false))).thenReturn(ACL);
+        when(accessRolesProvider.findPathsForPrincipal("user", null, 1, session)).thenReturn(asList(pathA));
+        when(accessRolesProvider.findPathsForPrincipal("user", pathA, 1, session)).thenReturn(asList(pathB));
+        when(accessRolesProvider.findPathsForPrincipal("user", pathB, 1, session)).thenReturn(emptyList());
+    }
+
+    private PrincipalChangeJobs.Job job(final String replacement, final int batchSize) {
+        return new PrincipalChangeJobs.Job(() -> session, "admin", (s, jcrPath) -> "http://localhost/rest" + jcrPath,
+                accessRolesProvider, "user", replacement, batchSize);
+    }
+
+    @Test
+    public void testReplace() throws RepositoryException {
+        final PrincipalChangeJobs.Job job = job("member", 1);
+
+        job.run();
+
+        verify(accessRolesProvider).patchRoles(nodeA, singletonMap("member", ROLES), singletonMap("user", ROLES));
+        verify(accessRolesProvider).patchRoles(nodeB, singletonMap("member", ROLES), singletonMap("user", ROLES));
+        final Map<String, Object> status = job.toMap();
+        assertEquals("completed", status.get("state"));
+        assertEquals(2, status.get("changed"));
+        assertEquals(0, status.get("failed"));
+        assertEquals("admin", job.getUserId());
+        verify(session, times(2)).save();
+        verify(session).logout();
+    }
+
+    @Test
+    public void testRevoke() throws RepositoryException {
+        final PrincipalChangeJobs.Job job = job(null, 1);
+
+        job.run();
+
+        verify(accessRolesProvider).patchRoles(nodeA, emptyMap(), singletonMap("user", ROLES));
+        assertEquals(2, job.toMap().get("changed"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFailedBatchIsPassedOver() throws RepositoryException {
+        doThrow(new RepositoryException("conflict")).when(accessRolesProvider)
+                .patchRoles(eq(nodeA), anyMap(), anyMap());
+        final PrincipalChangeJobs.Job job = job(null, 1);
+
+        job.run();
+
+        final Map<String, Object> status = job.toMap();
+        assertEquals("completed", status.get("state"));
+        assertEquals(1, status.get("changed"));
+        assertEquals(1, status.get("failed"));
+        assertEquals(asList(problem("http://localhost/rest/a", "failed")), status.get("problems"));
+        verify(session, times(2)).refresh(false);
+        verify(session).logout();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFailedAclIsPassedOverAlone() throws RepositoryException {
+        when(accessRolesProvider.findPathsForPrincipal("user", null, 2, session)).thenReturn(asList(pathA, pathB));
+        when(accessRolesProvider.findPathsForPrincipal("user", pathB, 2, session)).thenReturn(emptyList());
+        doThrow(new RepositoryException("conflict")).when(accessRolesProvider)
+                .patchRoles(eq(nodeA), anyMap(), anyMap());
+        final PrincipalChangeJobs.Job job = job(null, 2);
+
+        job.run();
+
+        final Map<String, Object> status = job.toMap();
+        assertEquals("completed", status.get("state"));
+        assertEquals(1, status.get("changed"));
+        assertEquals(1, status.get("failed"));
+        verify(accessRolesProvider).patchRoles(nodeB, emptyMap(), singletonMap("user", ROLES));
+        verify(session).save();
+    }
+
+    @Test
+    public void testDeniedAclIsSkipped() throws RepositoryException {
+        when(accessRolesProvider.findPathsForPrincipal("user", null, 2, session)).thenReturn(asList(pathA, pathB));
+        when(accessRolesProvider.findPathsForPrincipal("user", pathB, 2, session)).thenReturn(emptyList());
+        when(session.hasPermission("/a/" + Constants.JcrName.rbacl.getQualified(), CHANGE_ACTIONS))
+                .thenReturn(false);
+        final PrincipalChangeJobs.Job job = job(null, 2);
+
+        job.run();
+
+        verify(accessRolesProvider, never()).patchRoles(eq(nodeA), anyMap(), anyMap());
+        verify(accessRolesProvider).patchRoles(nodeB, emptyMap(), singletonMap("user", ROLES));
+        final Map<String, Object> status = job.toMap();
+        assertEquals(1, status.get("changed"));
+        assertEquals(1, status.get("denied"));
+        assertEquals(0, status.get("failed"));
+        assertEquals(asList(problem("http://localhost/rest/a", "denied")), status.get("problems"));
+        verify(session, never()).refresh(false);
+    }
+
+    @Test
+    public void testAlreadyChangedAclIsNotCounted() throws RepositoryException {
+        when(accessRolesProvider.getAcl(nodeB, false)).thenReturn(EffectiveAcl.of(singletonMap("other",
+                asList("reader"))));
+        final PrincipalChangeJobs.Job job = job(null, 1);
+
+        job.run();
+
+        final Map<String, Object> status = job.toMap();
+        assertEquals(1, status.get("changed"));
+        assertEquals(0, status.get("failed"));
+        assertFalse(status.containsKey("problems"));
+    }
+
+    private static Map<String, String> problem(final String resource, final String problem) {
+        final Map<String, String> report = new LinkedHashMap<>();
+        report.put("resource", resource);
+        report.put("problem", problem);
+        return report;
+    }
+
+    @Test
+    public void testCancel() throws RepositoryException {
+        final PrincipalChangeJobs.Job job = job(null, 1);
+
+        job.cancel();
+        job.run();
+
+        assertEquals(PrincipalChangeJobs.Job.State.CANCELLED, job.getState());
+        verify(accessRolesProvider, never()).findPathsForPrincipal("user", null, 1, session);
+        verify(session, never()).logout();
+    }
+
+    @Test
+    public void testFailed() throws RepositoryException {
+        when(accessRolesProvider.findPathsForPrincipal("user", null, 1, session))
+                .thenThrow(new RepositoryException("broken"));
+        final PrincipalChangeJobs.Job job = job(null, 1);
+
+        job.run();
+
+        assertEquals("failed", job.toMap().get("state"));
+        assertEquals("broken", job.toMap().get("error"));
+        verify(session).logout();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Collections.singleton;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_ALL_PRINCIPALS;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_USER_PRINCIPAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.aryEq;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.common.FedoraAuthorizationDelegate;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * @author agent
+ */
+public class PrincipalSessionTest {
+
+    @Mock
+    private Session userSession;
+
+    @Mock
+    private Session internalSession;
+
+    @Mock
+    private FedoraAuthorizationDelegate authorizationDelegate;
+
+    @Mock
+    private Principal user;
+
+    @Mock
+    private Principal group;
+
+    private Set<Principal> principals;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        principals = singleton(group);
+        when(userSession.getAttribute(FEDORA_USER_PRINCIPAL)).thenReturn(user);
+        when(userSession.getAttribute(FEDORA_ALL_PRINCIPALS)).thenReturn(principals);
+    }
+
+    @Test
+    public void testActsForUser() throws RepositoryException {
+        final Session session = PrincipalSession.of(internalSession, "alice",
+                PrincipalSession.principalsOf(userSession), authorizationDelegate);
+        final Node node = mock(Node.class);
+        when(internalSession.getNode("/a")).thenReturn(node);
+
+        assertEquals("alice", session.getUserID());
+        assertSame(user, session.getAttribute(FEDORA_USER_PRINCIPAL));
+        assertEquals(principals, session.getAttribute(FEDORA_ALL_PRINCIPALS));
+        assertNull(session.getAttribute("Authorization"));
+        assertSame("The repository should be reached through the internal session", node, session.getNode("/a"));
+        session.logout();
+        verify(internalSession).logout();
+    }
+
+    @Test
+    public void testPermissionsFromDelegate() throws RepositoryException {
+        final Session session = PrincipalSession.of(internalSession, "alice",
+                PrincipalSession.principalsOf(userSession), authorizationDelegate);
+        when(authorizationDelegate.hasPermission(eq(session), any(Path.class),
+                aryEq(new String[] {"add_node", "remove"}))).thenReturn(true);
+
+        assertTrue(session.hasPermission("/a", "add_node,remove"));
+        assertFalse(session.hasPermission("/a", "read"));
+        verify(internalSession, never()).hasPermission("/a", "read");
+    }
+
+    @Test
+    public void testUnrestrictedUser() {
+        final Map<String, Object> captured = PrincipalSession.principalsOf(internalSession);
+
+        assertNull("A session given no principals was not restricted by them", captured);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common.integration;
+
+import static org.fcrepo.auth.roles.common.RbAclAccessRolesProvider.STORAGE_LAYOUT;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+/**
+ * Runs the tests of {@link AccessRolesIT} with every ACL kept in the single-node property layout, which needs the
+ * node types to define authz:grant. Each integration test class runs in a JVM of its own, so the layout is chosen
+ * before the repository starts.
+ *
+ * @author agent
+ */
+public class AccessRolesPropertyStorageIT extends AccessRolesIT {
+
+    @BeforeClass
+    public static void usePropertyStorage() {
+        System.setProperty(STORAGE_LAYOUT, "property");
+    }
+
+    @AfterClass
+    public static void clearStorage() {
+        System.clearProperty(STORAGE_LAYOUT);
+    }
+}
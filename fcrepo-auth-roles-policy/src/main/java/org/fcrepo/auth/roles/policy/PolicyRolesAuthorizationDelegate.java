@@ -0,0 +1,214 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.policy;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.Principal;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.common.AbstractRolesAuthorizationDelegate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * An authorization delegate whose role permissions are given by a {@link RolesPolicy} file rather than by code. The
+ * file named by {@value #POLICY_FILE} is compiled when the delegate is created, or a built-in policy matching the
+ * basic delegate if none is named, and is checked for changes every {@value #RELOAD_INTERVAL} seconds. A changed
+ * file is compiled aside and swapped in whole, so checks under way are never blocked and never see half a policy;
+ * a file that fails to compile is reported and the policy in force is kept.
+ *
+ * @author agent
+ */
+public class PolicyRolesAuthorizationDelegate extends AbstractRolesAuthorizationDelegate {
+
+    /**
+     * The path of the policy file.
+     */
+    public static final String POLICY_FILE = "fcrepo.auth.roles.policy";
+
+    /**
+     * Seconds between checks of the policy file for changes, or 0 never to reload it. Defaults to 10.
+     */
+    public static final String RELOAD_INTERVAL = "fcrepo.auth.roles.policy.reload";
+
+    private static final String DEFAULT_POLICY = "/roles-policy.txt";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PolicyRolesAuthorizationDelegate.class);
+
+    private final Path policyFile;
+
+    private final AtomicReference<RolesPolicy> policy = new AtomicReference<>();
+
+    /**
+     * The digest of the policy file in force; only touched when loading. The content is compared rather than the
+     * modification time, which need not change when a file is rewritten within the clock's resolution.
+     */
+    private HashCode loaded;
+
+    private ScheduledExecutorService reloader;
+
+    /**
+     * Create a delegate with the policy file named by {@value #POLICY_FILE}, if any.
+     */
+    public PolicyRolesAuthorizationDelegate() {
+        this(System.getProperty(POLICY_FILE) == null ? null : Paths.get(System.getProperty(POLICY_FILE)));
+    }
+
+    /**
+     * Create a delegate with a policy file.
+     *
+     * @param policyFile the policy file, or null for the built-in policy
+     */
+    @VisibleForTesting
+    PolicyRolesAuthorizationDelegate(final Path policyFile) {
+        this.policyFile = policyFile;
+        if (policyFile == null) {
+            try (final Reader reader = new InputStreamReader(getClass().getResourceAsStream(DEFAULT_POLICY), UTF_8)) {
+                policy.set(RolesPolicy.compile(reader));
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            LOGGER.info("Using the built-in roles policy");
+        } else if (!reload()) {
+            throw new IllegalArgumentException("Unable to load the roles policy from " + policyFile);
+        }
+    }
+
+    /**
+     * Start checking the policy file for changes.
+     */
+    @PostConstruct
+    public void init() {
+        final long interval = Long.getLong(RELOAD_INTERVAL, 10);
+        if (policyFile == null || interval <= 0) {
+            return;
+        }
+        reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "fcrepo-auth-roles-policy-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(this::reload, interval, interval, SECONDS);
+    }
+
+    /**
+     * Stop checking the policy file for changes, and release what the delegate holds.
+     */
+    @Override
+    @PreDestroy
+    public void destroy() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+            reloader = null;
+        }
+        super.destroy();
+    }
+
+    /**
+     * Compile the policy file and put it in force, if it has changed since last loaded.
+     *
+     * @return whether a policy is in force from the file as it now stands
+     */
+    @VisibleForTesting
+    synchronized boolean reload() {
+        try {
+            final byte[] content = Files.readAllBytes(policyFile);
+            final HashCode digest = Hashing.sha256().hashBytes(content);
+            if (digest.equals(loaded)) {
+                return true;
+            }
+            final RolesPolicy compiled;
+            try (final Reader reader = new InputStreamReader(new ByteArrayInputStream(content), UTF_8)) {
+                compiled = RolesPolicy.compile(reader);
+            }
+            policy.set(compiled);
+            loaded = digest;
+            LOGGER.info("Loaded the roles policy from {}", policyFile);
+            return true;
+        } catch (final IOException | IllegalArgumentException e) {
+            LOGGER.error("Unable to load the roles policy from {}, keeping the policy in force", policyFile, e);
+            return false;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.auth.roles.AbstractRolesAuthorizationDelegate#rolesHavePermission(final
+     * String absPath, final String[] actions, final Set<String> roles)
+     */
+    @Override
+    public boolean rolesHavePermission(final Session userSession, final String absPath, final String[] actions,
+            final Set<String> roles) {
+        return decide(absPath, actions, roles, absPath.contains(AUTHZ_DETECTION));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.auth.roles.AbstractRolesAuthorizationDelegate#rolesHavePermission(final
+     * Path absPath, final String[] actions, final Set<String> roles)
+     */
+    @Override
+    public boolean rolesHavePermission(final Session userSession, final org.modeshape.jcr.value.Path absPath,
+            final String[] actions, final Set<String> roles) {
+        return decide(absPath, actions, roles, isAclPath(absPath));
+    }
+
+    private boolean decide(final Object absPath, final String[] actions, final Set<String> roles,
+            final boolean acl) {
+        final RolesPolicy current = policy.get();
+        final boolean permission = current.permits(roles, actions, acl);
+        if (LOGGER.isDebugEnabled()) {
+            if (!permission && roles.stream().noneMatch(current::recognizes)) {
+                LOGGER.debug("None of the roles {} are in the roles policy", roles);
+            }
+            LOGGER.debug("{} roles {} permission to perform {} on {}", permission ? "Granting" : "Denying", roles,
+                    actions, absPath);
+        }
+        return permission;
+    }
+
+    /**
+     * Get the principal that represents the "EVERYONE" user.
+     */
+    @Override
+    public Principal getEveryonePrincipal() {
+        return EVERYONE;
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.policy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * An immutable, compiled policy deciding which actions each role may take on content and on ACLs.
+ * <p>
+ * A policy is read from lines of four whitespace-separated columns: a role, a comma-separated list of actions or
+ * "*" for any action, the class of path the rule applies to ("content", "acl" or "*"), and "allow" or "deny". Blank
+ * lines and anything after a "#" are ignored. For each role, action and path class the most specific matching rule
+ * applies, a named action being more specific than a named path class; between equally specific rules, deny wins.
+ * A request is permitted when each action requested is allowed by one or more of the roles held, not necessarily
+ * the same role for every action, and denied by none of them.
+ * Roles the policy does not mention grant nothing.
+ * </p>
+ * <p>
+ * Compiling reduces the rules to a pair of allow and deny bitmasks per role, with a bit for each action named in
+ * the policy at each path class, so a decision costs a map lookup per role held, however many rules there are.
+ * </p>
+ *
+ * @author agent
+ */
+public final class RolesPolicy {
+
+    private static final String ANY = "*";
+
+    private static final int CONTENT = 0;
+
+    private static final int ACL = 1;
+
+    /**
+     * Bits per action, one for each path class.
+     */
+    private static final int PATH_CLASSES = 2;
+
+    private static final Splitter COLUMNS = Splitter.onPattern("\\s+").omitEmptyStrings();
+
+    private static final Splitter ACTIONS = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    /**
+     * The index of each action named in the policy; all others share the next.
+     */
+    private final Map<String, Integer> actions;
+
+    private final int otherActions;
+
+    private final Map<String, Grants> grants;
+
+    private RolesPolicy(final Map<String, Integer> actions, final Map<String, Grants> grants) {
+        this.actions = actions;
+        this.otherActions = actions.size();
+        this.grants = grants;
+    }
+
+    /**
+     * Decide whether roles permit actions.
+     *
+     * @param roles the roles held
+     * @param requested the actions requested, all of which must be permitted
+     * @param acl whether the actions are on an ACL rather than on content
+     * @return whether the actions are permitted
+     */
+    public boolean permits(final Set<String> roles, final String[] requested, final boolean acl) {
+        long needed = 0;
+        for (final String action : requested) {
+            needed |= bit(actionIndex(action), acl ? ACL : CONTENT);
+        }
+        long allowed = 0;
+        long denied = 0;
+        for (final String role : roles) {
+            final Grants granted = grants.get(role);
+            if (granted != null) {
+                allowed |= granted.allowed;
+                denied |= granted.denied;
+            }
+        }
+        return needed != 0 && (allowed & needed) == needed && (denied & needed) == 0;
+    }
+
+    /**
+     * @param role a role name
+     * @return whether the policy grants or denies the role anything
+     */
+    public boolean recognizes(final String role) {
+        return grants.containsKey(role);
+    }
+
+    private int actionIndex(final String action) {
+        final Integer index = actions.get(action);
+        return index == null ? otherActions : index;
+    }
+
+    private static long bit(final int action, final int pathClass) {
+        return 1L << (action * PATH_CLASSES + pathClass);
+    }
+
+    /**
+     * Read and compile a policy.
+     *
+     * @param policy the policy's text
+     * @return the compiled policy
+     * @throws IOException if the policy cannot be read
+     * @throws IllegalArgumentException if the policy is malformed
+     */
+    public static RolesPolicy compile(final Reader policy) throws IOException {
+        final List<Rule> rules = new ArrayList<>();
+        final BufferedReader lines = new BufferedReader(policy);
+        int number = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            number++;
+            final int comment = line.indexOf('#');
+            final List<String> columns = COLUMNS.splitToList(comment < 0 ? line : line.substring(0, comment));
+            if (!columns.isEmpty()) {
+                rules.add(Rule.parse(columns, number));
+            }
+        }
+        return compile(rules);
+    }
+
+    private static RolesPolicy compile(final List<Rule> rules) {
+        final Map<String, Integer> actions = new LinkedHashMap<>();
+        final Set<String> roles = new LinkedHashSet<>();
+        for (final Rule rule : rules) {
+            roles.add(rule.role);
+            for (final String action : rule.actions) {
+                if (!action.equals(ANY) && !actions.containsKey(action)) {
+                    actions.put(action, actions.size());
+                }
+            }
+        }
+        // every named action and the other actions need a bit at each path class
+        if ((actions.size() + 1) * PATH_CLASSES > Long.SIZE) {
+            throw new IllegalArgumentException("A policy may name at most " + (Long.SIZE / PATH_CLASSES - 1) +
+                    " actions, not " + actions.size());
+        }
+        final ImmutableMap.Builder<String, Grants> grants = ImmutableMap.builder();
+        for (final String role : roles) {
+            long allowed = 0;
+            long denied = 0;
+            for (int action = 0; action <= actions.size(); action++) {
+                final String actionName = action < actions.size() ? nameOf(actions, action) : null;
+                for (int pathClass = CONTENT; pathClass <= ACL; pathClass++) {
+                    final Boolean allow = decide(rules, role, actionName, pathClass);
+                    if (allow == null) {
+                        continue;
+                    }
+                    if (allow) {
+                        allowed |= bit(action, pathClass);
+                    } else {
+                        denied |= bit(action, pathClass);
+                    }
+                }
+            }
+            grants.put(role, new Grants(allowed, denied));
+        }
+        return new RolesPolicy(ImmutableMap.copyOf(actions), grants.build());
+    }
+
+    private static String nameOf(final Map<String, Integer> actions, final int index) {
+        for (final Map.Entry<String, Integer> action : actions.entrySet()) {
+            if (action.getValue() == index) {
+                return action.getKey();
+            }
+        }
+        throw new IllegalStateException("No action " + index);
+    }
+
+    /**
+     * Find the outcome of the most specific rules for a role taking an action on a class of path.
+     *
+     * @param actionName the action, or null for an action no rule names
+     * @return whether the action is allowed, or null if no rule applies
+     */
+    private static Boolean decide(final List<Rule> rules, final String role, final String actionName,
+            final int pathClass) {
+        int specificity = -1;
+        Boolean allow = null;
+        for (final Rule rule : rules) {
+            if (!rule.role.equals(role)) {
+                continue;
+            }
+            final boolean namesAction = actionName != null && rule.actions.contains(actionName);
+            if (!namesAction && !rule.actions.contains(ANY)) {
+                continue;
+            }
+            if (rule.pathClass != null && rule.pathClass != pathClass) {
+                continue;
+            }
+            final int ruleSpecificity = (namesAction ? 2 : 0) + (rule.pathClass != null ? 1 : 0);
+            if (ruleSpecificity > specificity) {
+                specificity = ruleSpecificity;
+                allow = rule.allow;
+            } else if (ruleSpecificity == specificity && !rule.allow) {
+                allow = false;
+            }
+        }
+        return allow;
+    }
+
+    /**
+     * What one role may and may not do, a bit for each action at each path class.
+     */
+    private static final class Grants {
+
+        private final long allowed;
+
+        private final long denied;
+
+        private Grants(final long allowed, final long denied) {
+            this.allowed = allowed;
+            this.denied = denied;
+        }
+    }
+
+    /**
+     * One line of a policy.
+     */
+    private static final class Rule {
+
+        private final String role;
+
+        private final Set<String> actions;
+
+        /**
+         * The path class, or null for any.
+         */
+        private final Integer pathClass;
+
+        private final boolean allow;
+
+        private Rule(final String role, final Set<String> actions, final Integer pathClass, final boolean allow) {
+            this.role = role;
+            this.actions = actions;
+            this.pathClass = pathClass;
+            this.allow = allow;
+        }
+
+        private static Rule parse(final List<String> columns, final int line) {
+            if (columns.size() != 4) {
+                throw new IllegalArgumentException("Policy line " + line +
+                        " must give a role, actions, path class and decision");
+            }
+            final Set<String> actions = ImmutableSet.copyOf(ACTIONS.split(columns.get(1)));
+            if (actions.isEmpty()) {
+                throw new IllegalArgumentException("Policy line " + line + " names no actions");
+            }
+            final Integer pathClass;
+            switch (columns.get(2)) {
+                case ANY:
+                    pathClass = null;
+                    break;
+                case "content":
+                    pathClass = CONTENT;
+                    break;
+                case "acl":
+                    pathClass = ACL;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Policy line " + line +
+                            " has a path class other than content, acl or *: " + columns.get(2));
+            }
+            final String decision = columns.get(3);
+            if (!decision.equals("allow") && !decision.equals("deny")) {
+                throw new IllegalArgumentException("Policy line " + line +
+                        " has a decision other than allow or deny: " + decision);
+            }
+            return new Rule(columns.get(0), actions, pathClass, decision.equals("allow"));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.policy;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import javax.jcr.Session;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * @author agent
+ */
+public class PolicyRolesAuthorizationDelegateTest {
+
+    private static final String[] READ = {"read"};
+
+    private static final String[] WRITE = {"add_node"};
+
+    private static final String ACL_PATH = "/some/{http://fedora.info/definitions/v4/authorization#}rbacl";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private Session session;
+
+    private Path policyFile;
+
+    @Before
+    public void setUp() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        policyFile = folder.newFile("policy.txt").toPath();
+    }
+
+    @Test
+    public void testBuiltInPolicy() {
+        final PolicyRolesAuthorizationDelegate delegate = new PolicyRolesAuthorizationDelegate((Path) null);
+
+        assertTrue(delegate.rolesHavePermission(session, ACL_PATH, WRITE, singleton("admin")));
+        assertTrue(delegate.rolesHavePermission(session, "/some/path", WRITE, singleton("writer")));
+        assertFalse(delegate.rolesHavePermission(session, ACL_PATH, WRITE, singleton("writer")));
+        assertTrue(delegate.rolesHavePermission(session, ACL_PATH, READ, singleton("writer")));
+        assertTrue(delegate.rolesHavePermission(session, "/some/path", READ, singleton("reader")));
+        assertFalse(delegate.rolesHavePermission(session, "/some/path", WRITE, singleton("reader")));
+        assertFalse(delegate.rolesHavePermission(session, "/some/path", READ, singleton("unknown")));
+        assertEquals("EVERYONE", delegate.getEveryonePrincipal().getName());
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        write("curator * content allow", 1000);
+        final PolicyRolesAuthorizationDelegate delegate = new PolicyRolesAuthorizationDelegate(policyFile);
+        assertTrue(delegate.rolesHavePermission(session, "/some/path", WRITE, singleton("curator")));
+
+        write("curator read content allow", 2000);
+
+        assertTrue(delegate.reload());
+        assertFalse(delegate.rolesHavePermission(session, "/some/path", WRITE, singleton("curator")));
+        assertTrue(delegate.rolesHavePermission(session, "/some/path", READ, singleton("curator")));
+    }
+
+    @Test
+    public void testReloadUnchangedTimeAndSize() throws IOException {
+        write("curator * content allow", 1000);
+        final PolicyRolesAuthorizationDelegate delegate = new PolicyRolesAuthorizationDelegate(policyFile);
+
+        write("curator * acl     allow", 1000);
+
+        assertTrue(delegate.reload());
+        assertFalse("A rewrite should be noticed though the time and size are unchanged",
+                delegate.rolesHavePermission(session, "/some/path", WRITE, singleton("curator")));
+        assertTrue(delegate.rolesHavePermission(session, ACL_PATH, WRITE, singleton("curator")));
+    }
+
+    @Test
+    public void testFailedReloadKeepsPolicy() throws IOException {
+        write("curator * content allow", 1000);
+        final PolicyRolesAuthorizationDelegate delegate = new PolicyRolesAuthorizationDelegate(policyFile);
+
+        write("curator * content perhaps", 2000);
+
+        assertFalse(delegate.reload());
+        assertTrue(delegate.rolesHavePermission(session, "/some/path", WRITE, singleton("curator")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingPolicyFile() {
+        new PolicyRolesAuthorizationDelegate(policyFile.resolveSibling("missing.txt"));
+    }
+
+    private void write(final String policy, final long modified) throws IOException {
+        Files.write(policyFile, policy.getBytes(UTF_8));
+        Files.setLastModifiedTime(policyFile, FileTime.fromMillis(modified));
+    }
+}
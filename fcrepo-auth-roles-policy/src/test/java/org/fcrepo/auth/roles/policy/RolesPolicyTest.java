@@ -0,0 +1,140 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.policy;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class RolesPolicyTest {
+
+    private static final String[] READ = {"read"};
+
+    private static final String[] ADD_NODE = {"add_node"};
+
+    private static RolesPolicy compile(final String... lines) throws IOException {
+        return RolesPolicy.compile(new StringReader(String.join("\n", lines)));
+    }
+
+    @Test
+    public void testAnyAction() throws IOException {
+        final RolesPolicy policy = compile("writer * content allow", "writer read acl allow");
+
+        assertTrue(policy.permits(singleton("writer"), ADD_NODE, false));
+        assertTrue(policy.permits(singleton("writer"), new String[] {"never_named"}, false));
+        assertTrue(policy.permits(singleton("writer"), READ, true));
+        assertFalse(policy.permits(singleton("writer"), ADD_NODE, true));
+    }
+
+    @Test
+    public void testMostSpecificRuleApplies() throws IOException {
+        final RolesPolicy policy = compile(
+                "editor * * allow",
+                "editor remove * deny",
+                "editor * acl deny",
+                "editor read acl allow");
+
+        assertTrue(policy.permits(singleton("editor"), ADD_NODE, false));
+        assertFalse("A named action should outrank any action", policy.permits(singleton("editor"),
+                new String[] {"remove"}, false));
+        assertFalse("A named path class should outrank any path class", policy.permits(singleton("editor"),
+                ADD_NODE, true));
+        assertTrue(policy.permits(singleton("editor"), READ, true));
+    }
+
+    @Test
+    public void testDenyWinsTies() throws IOException {
+        final RolesPolicy policy = compile("a read,remove * allow", "a remove,add_node * deny");
+
+        assertTrue(policy.permits(singleton("a"), READ, false));
+        assertFalse(policy.permits(singleton("a"), new String[] {"remove"}, false));
+    }
+
+    @Test
+    public void testDenyByAnyRoleWins() throws IOException {
+        final RolesPolicy policy = compile("writer * * allow", "suspended * content deny");
+
+        assertFalse(policy.permits(new HashSet<>(asList("writer", "suspended")), READ, false));
+        assertTrue(policy.permits(new HashSet<>(asList("writer", "suspended")), READ, true));
+    }
+
+    @Test
+    public void testAllActionsMustBePermitted() throws IOException {
+        final RolesPolicy policy = compile("a read * allow", "b add_node * allow");
+
+        assertFalse(policy.permits(singleton("a"), new String[] {"read", "add_node"}, false));
+        assertTrue(policy.permits(new HashSet<>(asList("a", "b")), new String[] {"read", "add_node"}, false));
+    }
+
+    @Test
+    public void testActionsMayBeAllowedByDifferentRoles() throws IOException {
+        final RolesPolicy policy = compile("a read * allow", "b add_node acl allow", "c add_node acl deny");
+        final String[] both = {"read", "add_node"};
+
+        assertTrue("No one role need allow every action", policy.permits(new HashSet<>(asList("a", "b")), both, true));
+        assertFalse("Each action must be allowed on the path class checked",
+                policy.permits(new HashSet<>(asList("a", "b")), both, false));
+        assertFalse("A deny of either action should refuse both",
+                policy.permits(new HashSet<>(asList("a", "b", "c")), both, true));
+    }
+
+    @Test
+    public void testUnknownRolesGrantNothing() throws IOException {
+        final RolesPolicy policy = compile("# comment only", "", "reader read * allow # trailing comment");
+
+        assertFalse(policy.permits(singleton("other"), READ, false));
+        assertFalse(policy.permits(emptySet(), READ, false));
+        assertTrue(policy.recognizes("reader"));
+        assertFalse(policy.recognizes("other"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedRule() throws IOException {
+        compile("reader read allow");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPathClass() throws IOException {
+        compile("reader read binary allow");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDecision() throws IOException {
+        compile("reader read * maybe");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyActions() throws IOException {
+        final StringBuilder actions = new StringBuilder("a0");
+        for (int i = 1; i < 32; i++) {
+            actions.append(",a").append(i);
+        }
+        compile("role " + actions + " * allow");
+    }
+}